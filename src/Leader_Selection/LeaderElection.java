@@ -77,14 +77,16 @@ public class LeaderElection extends TestMainClient {
             if (newLeader != null) {
                 leading();
             } else {
-                mutex.wait();
+                synchronized (mutex) {
+                    mutex.wait();
+                }
             }
         }
     }
 
     @Override
     public void process(WatchedEvent event) {
-        if (event.getPath().equals(root + "/leader") && event.getType() == Event.EventType.NodeCreated) {
+        if ((root + "/leader").equals(event.getPath()) && event.getType() == Event.EventType.NodeCreated) {
             System.out.println("得到通知");
             super.process(event);
             following();
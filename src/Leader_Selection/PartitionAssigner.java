@@ -0,0 +1,223 @@
+package Leader_Selection;
+
+import Lock.lock.TestMainClient;
+import org.apache.log4j.Logger;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.Stat;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * 分区领导者分配
+ *
+ * 把 partitions 个逻辑分区分给所有在线成员，每个分区各有一个领导者，协调工作可以横向扩展。
+ * 成员在 root/members 下创建以成员名命名的临时节点，并监听该目录的子节点变化。
+ * 每个成员在一致性哈希环上放置 VIRTUAL_NODES 个虚拟节点，分区归属于环上顺时针方向的第一个虚拟节点；
+ * 所有成员根据同一份成员列表各自计算，不需要额外的协调节点。
+ * 成员加入或离开时只有落在它的虚拟节点区间内的分区会迁移，约为 partitions / 成员数 个，其余分区保持不动。
+ * 各成员收到通知的时间不同，迁移中的分区可能短暂地同时被新旧两个成员持有，
+ * 需要严格互斥时应配合分区锁或防护令牌使用。
+ */
+public class PartitionAssigner extends TestMainClient {
+    public static final Logger logger = Logger.getLogger(PartitionAssigner.class);
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final int VIRTUAL_NODES = 100;
+
+    private final int partitions;
+    private final String members;
+    private final String memberId;
+    // 本成员当前持有的分区
+    private final TreeSet<Integer> owned = new TreeSet<Integer>();
+    private volatile boolean joined = false;
+
+    private final Watcher membersWatcher = new Watcher() {
+        @Override
+        public void process(WatchedEvent event) {
+            if (event.getType() == Event.EventType.NodeChildrenChanged) {
+                try {
+                    rebalance();
+                } catch (KeeperException e) {
+                    logger.error(e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    };
+
+    /**
+     * 构造函数
+     *
+     * @param connectString 服务器连接
+     * @param root          根目录
+     * @param partitions    分区个数
+     * @param memberId      成员名，重启后使用相同的名字可以拿回原来的分区
+     */
+    public PartitionAssigner(String connectString, String root, int partitions, String memberId) {
+        super(connectString);
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("partitions must be positive");
+        }
+        this.root = root;
+        this.partitions = partitions;
+        this.members = root + "/members";
+        this.memberId = memberId;
+        if (zk != null) {
+            try {
+                for (String path : new String[]{root, members}) {
+                    Stat s = zk.exists(path, false);
+                    if (s == null) {
+                        try {
+                            zk.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+                        } catch (KeeperException.NodeExistsException e) {
+                            // 其他成员已经创建
+                        }
+                    }
+                }
+            } catch (KeeperException e) {
+                logger.error(e);
+            } catch (InterruptedException e) {
+                logger.error(e);
+            }
+        }
+    }
+
+    /**
+     * 加入分组并取得分区
+     */
+    void join() throws KeeperException, InterruptedException, UnknownHostException {
+        byte[] localhost = InetAddress.getLocalHost().getAddress();
+        zk.create(members + "/" + memberId, localhost, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+        joined = true;
+        rebalance();
+    }
+
+    /**
+     * 离开分组，交出全部分区
+     */
+    void leave() throws KeeperException, InterruptedException {
+        Set<Integer> revoked;
+        synchronized (this) {
+            joined = false;
+            revoked = new TreeSet<Integer>(owned);
+            owned.clear();
+        }
+        if (!revoked.isEmpty()) {
+            revoked(revoked);
+        }
+        try {
+            zk.delete(members + "/" + memberId, -1);
+        } catch (KeeperException.NoNodeException e) {
+            // 会话已过期
+        }
+    }
+
+    /**
+     * 重新列出成员并注册监听，计算本成员的分区，先回调交出的分区再回调新取得的分区
+     */
+    synchronized void rebalance() throws KeeperException, InterruptedException {
+        List<String> live = zk.getChildren(members, membersWatcher);
+        if (!joined) {
+            return;
+        }
+        Set<Integer> target = assign(live, partitions, memberId);
+        Set<Integer> revoked = new TreeSet<Integer>(owned);
+        revoked.removeAll(target);
+        Set<Integer> assigned = new TreeSet<Integer>(target);
+        assigned.removeAll(owned);
+        owned.removeAll(revoked);
+        if (!revoked.isEmpty()) {
+            revoked(revoked);
+        }
+        owned.addAll(assigned);
+        if (!assigned.isEmpty()) {
+            assigned(assigned);
+        }
+    }
+
+    /**
+     * 本成员当前持有的分区
+     */
+    synchronized Set<Integer> getAssignment() {
+        return Collections.unmodifiableSet(new TreeSet<Integer>(owned));
+    }
+
+    /**
+     * 根据成员列表计算某个成员应持有的分区，所有成员得到的结果一致
+     */
+    static Set<Integer> assign(List<String> live, int partitions, String memberId) {
+        Set<Integer> result = new HashSet<Integer>();
+        if (!live.contains(memberId)) {
+            return result;
+        }
+        TreeMap<Long, String> ring = new TreeMap<Long, String>();
+        for (String member : live) {
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+                ring.put(hash(member + "#" + v), member);
+            }
+        }
+        for (int p = 0; p < partitions; p++) {
+            Map.Entry<Long, String> entry = ring.ceilingEntry(hash("partition-" + p));
+            if (entry == null) {
+                entry = ring.firstEntry();
+            }
+            if (memberId.equals(entry.getValue())) {
+                result.add(p);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 取MD5的前8个字节作为环上的位置
+     */
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(CHARSET));
+            long h = 0;
+            for (int i = 0; i < 8; i++) {
+                h = (h << 8) | (digest[i] & 0xff);
+            }
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void assigned(Set<Integer> partitions) {
+        System.out.println("成为分区 " + partitions + " 的领导者");
+    }
+
+    void revoked(Set<Integer> partitions) {
+        System.out.println("交出分区 " + partitions);
+    }
+
+    public static void main(String[] args) {
+        String connectString = "localhost:2181";
+
+        try {
+            String memberId = InetAddress.getLocalHost().getCanonicalHostName();
+            PartitionAssigner pa = new PartitionAssigner(connectString, "/GroupMembers", 16, memberId);
+            pa.join();
+            //stay alive until process is killed or Thread is interrupted
+            Thread.sleep(Long.MAX_VALUE);
+        } catch (Exception e) {
+            logger.error(e);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package Leader_Selection;
+
+import Lock.lock.TestMainClient;
+import org.apache.log4j.Logger;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.Stat;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 基于顺序节点的Master选举
+ *
+ * 每个候选者在 root 下创建一个 candidate- 临时顺序节点，序号最小的成为领导者，
+ * 其余候选者只监听排在自己前面的那一个节点。
+ * 领导者失效时只有它的下一个候选者收到通知并重新检查，
+ * 一次故障转移只产生O(1)个通知，而不是唤醒所有跟随者；
+ * 跟随者失效时也只影响排在它后面的那个候选者，它会改为监听新的前一个节点。
+ */
+public class SequentialLeaderElection extends TestMainClient {
+    public static final Logger logger = Logger.getLogger(SequentialLeaderElection.class);
+    private static final String PREFIX = "candidate-";
+
+    // 本候选者的节点名
+    private volatile String myNode;
+    private volatile boolean leader = false;
+
+    private final Watcher predecessorWatcher = new Watcher() {
+        @Override
+        public void process(WatchedEvent event) {
+            if (event.getType() == Event.EventType.NodeDeleted) {
+                try {
+                    check();
+                } catch (KeeperException e) {
+                    logger.error(e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    };
+
+    public SequentialLeaderElection(String connectString, String root) {
+        super(connectString);
+        this.root = root;
+        if (zk != null) {
+            try {
+                Stat s = zk.exists(root, false);
+                if (s == null) {
+                    zk.create(root, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+                }
+            } catch (KeeperException e) {
+                logger.error(e);
+            } catch (InterruptedException e) {
+                logger.error(e);
+            }
+        }
+    }
+
+    /**
+     * 参加选举
+     */
+    void volunteer() throws KeeperException, InterruptedException, UnknownHostException {
+        if (myNode == null) {
+            byte[] localhost = InetAddress.getLocalHost().getAddress();
+            String path = zk.create(root + "/" + PREFIX, localhost, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
+            myNode = path.substring(path.lastIndexOf("/") + 1);
+        }
+        check();
+    }
+
+    /**
+     * 检查自己是否排在最前面，否则监听前一个候选者
+     */
+    synchronized void check() throws KeeperException, InterruptedException {
+        String node = myNode;
+        if (node == null) {
+            return;
+        }
+        while (true) {
+            List<String> candidates = new ArrayList<String>();
+            for (String child : zk.getChildren(root, false)) {
+                if (child.startsWith(PREFIX)) {
+                    candidates.add(child);
+                }
+            }
+            Collections.sort(candidates);
+            int i = candidates.indexOf(node);
+            if (i < 0) {
+                // 会话过期，节点已不存在
+                myNode = null;
+                leader = false;
+                return;
+            }
+            if (i == 0) {
+                if (!leader) {
+                    leader = true;
+                    leading();
+                }
+                return;
+            }
+            // 只监听前一个候选者，它已不存在则重新检查
+            if (zk.exists(root + "/" + candidates.get(i - 1), predecessorWatcher) != null) {
+                following();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 退出选举，领导者退出后下一个候选者接替
+     */
+    synchronized void resign() throws KeeperException, InterruptedException {
+        String node = myNode;
+        myNode = null;
+        leader = false;
+        if (node != null) {
+            try {
+                zk.delete(root + "/" + node, -1);
+            } catch (KeeperException.NoNodeException e) {
+                // 已经不存在
+            }
+        }
+    }
+
+    boolean isLeader() {
+        return leader;
+    }
+
+    void leading() {
+        System.out.println("成为领导者");
+    }
+
+    void following() {
+        System.out.println("成为组成员");
+    }
+
+    public static void main(String[] args) {
+        String connectString = "localhost:2181";
+
+        SequentialLeaderElection le = new SequentialLeaderElection(connectString, "/Election");
+        try {
+            le.volunteer();
+            //stay alive until process is killed or Thread is interrupted
+            Thread.sleep(Long.MAX_VALUE);
+        } catch (Exception e) {
+            logger.error(e);
+        }
+    }
+}
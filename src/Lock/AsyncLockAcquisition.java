@@ -0,0 +1,127 @@
+package Lock;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+
+import Lock.DistributedLock.LockException;
+
+/**
+ * 一次异步加锁
+ *
+ * 全部由zookeeper的异步回调和LockNodeIndex的删除通知驱动，等待期间不占用任何线程，
+ * 一个事件线程就可以管理大量未完成的加锁请求。
+ */
+class AsyncLockAcquisition implements Runnable {
+    private final ZooKeeper zk;
+    private final LockNodeIndex index;
+    private final String root;
+    private final String lockName;
+    private final CompletableFuture<LockHandle> future = new CompletableFuture<LockHandle>();
+    // 创建成功的节点名
+    private volatile String node;
+
+    AsyncLockAcquisition(LockSession session, String root, String lockName) {
+        this.zk = session.getZooKeeper();
+        this.index = session.indexOf(root, DistributedLock.SPLIT_STR);
+        this.root = root;
+        this.lockName = lockName;
+    }
+
+    CompletableFuture<LockHandle> start() {
+        if (lockName.contains(DistributedLock.SPLIT_STR)) {
+            future.completeExceptionally(new LockException("lockName can not contains " + DistributedLock.SPLIT_STR));
+            return future;
+        }
+        // 调用方取消时撤回已创建的节点
+        future.whenComplete(new BiConsumer<LockHandle, Throwable>() {
+            @Override
+            public void accept(LockHandle handle, Throwable t) {
+                if (future.isCancelled()) {
+                    abandon();
+                }
+            }
+        });
+        index.start().whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void v, Throwable t) {
+                if (t != null) {
+                    future.completeExceptionally(t);
+                } else {
+                    create();
+                }
+            }
+        });
+        return future;
+    }
+
+    private void create() {
+        zk.create(root + "/" + lockName + DistributedLock.SPLIT_STR, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                CreateMode.EPHEMERAL_SEQUENTIAL, new AsyncCallback.StringCallback() {
+                    @Override
+                    public void processResult(int rc, String path, Object ctx, String name) {
+                        KeeperException.Code code = KeeperException.Code.get(rc);
+                        if (code != KeeperException.Code.OK) {
+                            future.completeExceptionally(KeeperException.create(code, path));
+                            return;
+                        }
+                        node = name.substring(name.lastIndexOf("/") + 1);
+                        index.addLocal(node);
+                        // 监听刷新返回的列表包含自己的节点后再检查前一个节点
+                        try {
+                            if (index.whenConfirmed(node, AsyncLockAcquisition.this)) {
+                                run();
+                            }
+                        } catch (KeeperException.SessionExpiredException e) {
+                            future.completeExceptionally(new LockException(e));
+                        }
+                    }
+                }, null);
+    }
+
+    /**
+     * 检查是否已是最小节点，不是则在前一个节点上登记自己，前一个节点删除时再次执行
+     *
+     * 只在索引确认了自己的节点之后执行，此时序号更小的节点都已在索引中。
+     * 会话过期时索引也会执行一次，此时以LockException结束请求，节点已随会话删除。
+     */
+    @Override
+    public void run() {
+        if (future.isDone()) {
+            if (future.isCancelled()) {
+                abandon();
+            }
+            return;
+        }
+        try {
+            if (index.watchPredecessor(node, this) == null) {
+                if (!future.complete(new LockHandle(zk, index, lockName, root + "/" + node))) {
+                    abandon();
+                }
+            }
+        } catch (KeeperException.SessionExpiredException e) {
+            future.completeExceptionally(new LockException(e));
+        }
+    }
+
+    /**
+     * 请求已被取消，异步删除自己的节点
+     */
+    private void abandon() {
+        final String created = node;
+        if (created == null) {
+            return;
+        }
+        zk.delete(root + "/" + created, -1, new AsyncCallback.VoidCallback() {
+            @Override
+            public void processResult(int rc, String path, Object ctx) {
+                index.removeLocal(created);
+            }
+        }, null);
+    }
+}
@@ -0,0 +1,240 @@
+package Lock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+
+import Lock.DistributedLock.LockException;
+
+/**
+    DistributedLock lock = factory.getLock("queue");
+    Condition notEmpty = lock.newCondition("notEmpty");
+    lock.lock();
+    try {
+        while (isEmpty()) {
+            notEmpty.await();
+        }
+        //take something...
+    } finally {
+        lock.unlock();
+    }
+ */
+
+/**
+ * 基于znode的条件变量
+ *
+ * await()在 /conditions/lockName/conditionName 下创建一个临时顺序节点，释放锁后监听这个节点；
+ * signal()删除最早的等待节点，signalAll()删除所有等待节点，
+ * 被删除节点的等待者由watch唤醒后重新获取锁，不需要轮询。
+ */
+public class DistributedCondition implements Condition {
+    static final String ROOT = "/conditions";
+    private static final String WAITER_PREFIX = "waiter_";
+
+    /**
+     * 条件变量所属的锁，await时需要完全释放并在唤醒后重新获取
+     */
+    interface Owner {
+        /**
+         * 当前线程未持有锁时抛出IllegalMonitorStateException
+         */
+        void checkHeld();
+
+        /**
+         * 完全释放锁
+         *
+         * @return 重新获取锁时需要恢复的状态
+         */
+        int releaseAll();
+
+        /**
+         * 重新获取锁并恢复releaseAll()之前的状态
+         */
+        void reacquire(int state);
+    }
+
+    // 跟随所属锁的会话，会话过期被替换后等待节点已不存在，等待者被当作收到signal，重新检查条件
+    private final SessionHandle handle;
+    private final Owner owner;
+    private final String path;
+
+    DistributedCondition(SessionHandle handle, Owner owner, String lockName, String name) {
+        this.handle = handle;
+        this.owner = owner;
+        this.path = ROOT + "/" + lockName + "/" + name;
+    }
+
+    @Override
+    public void await() throws InterruptedException {
+        awaitNanos(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void awaitUninterruptibly() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean await(long time, TimeUnit unit) throws InterruptedException {
+        return awaitNanos(unit.toNanos(time)) > 0;
+    }
+
+    @Override
+    public boolean awaitUntil(Date deadline) throws InterruptedException {
+        long millis = deadline.getTime() - System.currentTimeMillis();
+        return awaitNanos(TimeUnit.MILLISECONDS.toNanos(millis)) > 0;
+    }
+
+    /**
+     * @return 剩余的等待时间(纳秒)，小于等于0表示超时
+     */
+    @Override
+    public long awaitNanos(long nanosTimeout) throws InterruptedException {
+        owner.checkHeld();
+        long start = System.nanoTime();
+        String waiter = createWaiter();
+        // 先创建等待节点再释放锁，释放之后发出的signal不会丢失
+        int state = owner.releaseAll();
+        boolean signalled = false;
+        try {
+            signalled = waitForDelete(waiter, nanosTimeout, start);
+        } finally {
+            if (!signalled) {
+                // 超时或被中断，撤回自己的节点；节点已不存在说明同时收到了signal
+                signalled = !deleteWaiter(waiter);
+            }
+            owner.reacquire(state);
+        }
+        if (nanosTimeout == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        long remaining = nanosTimeout - (System.nanoTime() - start);
+        return signalled ? Math.max(remaining, 1) : Math.min(remaining, 0);
+    }
+
+    @Override
+    public void signal() {
+        owner.checkHeld();
+        try {
+            for (String waiter : waiters()) {
+                // 等待者可能已经超时撤回，依次尝试下一个
+                if (deleteWaiter(waiter)) {
+                    return;
+                }
+            }
+        } catch (KeeperException e) {
+            throw new LockException(e);
+        } catch (InterruptedException e) {
+            throw new LockException(e);
+        }
+    }
+
+    @Override
+    public void signalAll() {
+        owner.checkHeld();
+        try {
+            for (String waiter : waiters()) {
+                deleteWaiter(waiter);
+            }
+        } catch (KeeperException e) {
+            throw new LockException(e);
+        } catch (InterruptedException e) {
+            throw new LockException(e);
+        }
+    }
+
+    private String createWaiter() throws InterruptedException {
+        try {
+            LockSession session = handle.get();
+            session.ensurePath(ROOT);
+            session.ensurePath(path.substring(0, path.lastIndexOf("/")));
+            session.ensurePath(path);
+            return session.getZooKeeper().create(path + "/" + WAITER_PREFIX, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
+        } catch (KeeperException e) {
+            throw new LockException(e);
+        }
+    }
+
+    /**
+     * 等待自己的节点被删除
+     *
+     * @return 是否已被signal
+     */
+    private boolean waitForDelete(String waiter, long nanosTimeout, long start) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        Watcher watcher = new Watcher() {
+            @Override
+            public void process(WatchedEvent event) {
+                if (event.getType() == Event.EventType.NodeDeleted) {
+                    latch.countDown();
+                }
+            }
+        };
+        try {
+            if (handle.get().getZooKeeper().exists(waiter, watcher) == null) {
+                return true;
+            }
+        } catch (KeeperException e) {
+            throw new LockException(e);
+        }
+        if (nanosTimeout == Long.MAX_VALUE) {
+            latch.await();
+            return true;
+        }
+        long remaining = nanosTimeout - (System.nanoTime() - start);
+        return remaining > 0 && latch.await(remaining, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return 是否由本次调用删除
+     */
+    private boolean deleteWaiter(String waiter) {
+        try {
+            handle.get().getZooKeeper().delete(waiter, -1);
+            return true;
+        } catch (KeeperException.NoNodeException e) {
+            return false;
+        } catch (KeeperException e) {
+            throw new LockException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LockException(e);
+        }
+    }
+
+    private List<String> waiters() throws KeeperException, InterruptedException {
+        List<String> children;
+        try {
+            children = new ArrayList<String>(handle.get().getZooKeeper().getChildren(path, false));
+        } catch (KeeperException.NoNodeException e) {
+            return Collections.emptyList();
+        }
+        Collections.sort(children);
+        List<String> result = new ArrayList<String>(children.size());
+        for (String child : children) {
+            result.add(path + "/" + child);
+        }
+        return result;
+    }
+}
@@ -2,20 +2,15 @@ package Lock;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
  
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
-import org.apache.zookeeper.WatchedEvent;
-import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.ZooKeeper;
-import org.apache.zookeeper.data.Stat;
  
 /**
     DistributedLock lock = null;
@@ -34,8 +29,14 @@ import org.apache.zookeeper.data.Stat;
 
 /**
  * 分布式锁的简单实现，实现了Lock接口
+ *
+ * 排队顺序由会话共享的LockNodeIndex在本地维护，竞争者只等待自己的前一个节点。
  */
-public class DistributedLock implements Lock, Watcher{
+public class DistributedLock implements Lock {
+    static final String SPLIT_STR = "_lock_";
+    // 每次加锁时从中取得会话，池中的会话过期被替换后跟着换
+    private SessionHandle handle;
+    private LockSession session;
     private ZooKeeper zk;
     // 根
     private String root = "/locks";
@@ -45,11 +46,13 @@ public class DistributedLock implements Lock, Watcher{
     private String waitNode ;
     //当前锁
     private String myZnode;
-    //当前锁
-    private CountDownLatch latch;
     private int sessionTimeout = 30000;
     // 异常的集合
     private List<Exception> exception = new ArrayList<Exception>();
+    // 会话是否由当前锁创建，共享会话在unlock时不关闭
+    private boolean ownsSession = true;
+    // 已创建的条件变量个数，用于生成默认的条件变量名
+    private int conditionCount = 0;
      
     /**
      * 创建分布式锁,使用前请确认config配置的zookeeper服务可用
@@ -61,12 +64,11 @@ public class DistributedLock implements Lock, Watcher{
         this.lockName = lockName;
         // 创建一个与服务器的连接
          try {
-            zk = new ZooKeeper(config, sessionTimeout, this);
-            Stat stat = zk.exists(root, false);
-            if(stat == null){
-                // 创建根节点
-                zk.create(root, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,CreateMode.PERSISTENT);
-            }
+            session = new LockSession(config, sessionTimeout);
+            handle = new SessionHandle(session);
+            zk = session.getZooKeeper();
+            // 创建根节点
+            session.ensurePath(root);
         } catch (IOException e) {
             exception.add(e);
         } catch (KeeperException e) {
@@ -75,15 +77,19 @@ public class DistributedLock implements Lock, Watcher{
             exception.add(e);
         }
     }
- 
+
     /**
-     * zookeeper节点的监视器
+     * 基于会话池创建分布式锁，由DistributedLockFactory调用
+     *
+     * @param pool 共享的会话池，每次加锁时取当前未过期的会话
+     * @param lockName 竞争资源标志,lockName中不能包含单词lock
      */
-    @Override
-    public void process(WatchedEvent event) {
-        if(this.latch != null) { 
-            this.latch.countDown(); 
-        }
+    DistributedLock(ZkSessionPool pool, String lockName){
+        this.lockName = lockName;
+        this.handle = new SessionHandle(pool);
+        this.session = handle.get();
+        this.zk = session.getZooKeeper();
+        this.ownsSession = false;
     }
 
     @Override
@@ -98,11 +104,14 @@ public class DistributedLock implements Lock, Watcher{
             }
             else{
                 // 获取锁失败，等待锁
-                waitForLock(waitNode, sessionTimeout);
+                waitForLock(waitNode, Long.MAX_VALUE);
             }
         } catch (KeeperException e) {
+            // 删除自己的节点，共享会话不会过期，节点留下会一直阻挡后面的竞争者
+            release();
             throw new LockException(e);
         } catch (InterruptedException e) {
+            release();
             throw new LockException(e);
         }
     }
@@ -110,35 +119,34 @@ public class DistributedLock implements Lock, Watcher{
     @Override
     public boolean tryLock() {
         try {
-            String splitStr = "_lock_";
-            if(lockName.contains(splitStr)){
+            if(lockName.contains(SPLIT_STR)){
                 throw new LockException("lockName can not contains \\u000B");
             }
+            // 没有持有节点，可以换到池中未过期的会话
+            session = handle.get();
+            zk = session.getZooKeeper();
+            session.ensurePath(root);
+            LockNodeIndex index = session.getIndex(root, SPLIT_STR);
             //创建临时子节点
-            myZnode = zk.create(root + "/" + lockName + splitStr, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,CreateMode.EPHEMERAL_SEQUENTIAL);
+            myZnode = zk.create(root + "/" + lockName + SPLIT_STR, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,CreateMode.EPHEMERAL_SEQUENTIAL);
             System.out.println(myZnode + " is created ");
-            //取出所有子节点
-            List<String> subNodes = zk.getChildren(root, false);
-            //取出所有lockName的锁
-            List<String> lockObjNodes = new ArrayList<String>();
-            for (String node : subNodes) {
-                String _node = node.split(splitStr)[0];
-                if(_node.equals(lockName)){
-                    lockObjNodes.add(node);
-                }
+            index.addLocal(nodeName());
+            //等到索引应用了包含自己节点的列表，序号更小的节点才都在索引中
+            if(!index.awaitConfirmed(nodeName(), System.currentTimeMillis() + sessionTimeout)){
+                release();
+                throw new LockException(myZnode + " not seen in children of " + root);
             }
-            Collections.sort(lockObjNodes);
-            System.out.println(myZnode + "==" + lockObjNodes.get(0));
-            if(myZnode.equals(root+"/"+lockObjNodes.get(0))){
+            //在本地索引中找到比自己小1的节点
+            waitNode = index.predecessor(nodeName());
+            if(waitNode == null){
                 //如果是最小的节点,则表示取得锁
                 return true;
             }
-            //如果不是最小的节点，找到比自己小1的节点
-            String subMyZnode = myZnode.substring(myZnode.lastIndexOf("/") + 1);
-            waitNode = lockObjNodes.get(Collections.binarySearch(lockObjNodes, subMyZnode) - 1);
         } catch (KeeperException e) {
+            release();
             throw new LockException(e);
         } catch (InterruptedException e) {
+            release();
             throw new LockException(e);
         }
         return false;
@@ -150,50 +158,141 @@ public class DistributedLock implements Lock, Watcher{
             if(this.tryLock()){
                 return true;
             }
-            return waitForLock(waitNode,time);
+            if(waitForLock(waitNode, unit.toMillis(time))){
+                return true;
+            }
+            // 超时，删除自己的节点，不再阻挡后面的竞争者
+            release();
+        } catch (LockException e) {
+            throw e;
+        } catch (KeeperException e) {
+            // 等待期间会话过期
+            release();
+            throw new LockException(e);
         } catch (Exception e) {
+            release();
             e.printStackTrace();
         }
         return false;
     }
  
     private boolean waitForLock(String lower, long waitTime) throws InterruptedException, KeeperException {
-        Stat stat = zk.exists(root + "/" + lower,true);
-        //判断比自己小一个数的节点是否存在,如果不存在则无需等待锁,同时注册监听
-        if(stat != null){
-            System.out.println("Thread " + Thread.currentThread().getId() + " waiting for " + root + "/" + lower);
-            this.latch = new CountDownLatch(1);
-            this.latch.await(waitTime, TimeUnit.MILLISECONDS);
-            this.latch = null;
-        }
-        return true;
+        LockNodeIndex index = session.getIndex(root, SPLIT_STR);
+        long deadline = waitTime == Long.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis() + waitTime;
+        System.out.println("Thread " + Thread.currentThread().getId() + " waiting for " + root + "/" + lower);
+        //前一个节点被删除时才会被唤醒,不存在则表示取得锁
+        return index.awaitFirst(nodeName(), deadline);
     }
 
     @Override
     public void unlock() {
+        release();
+        if(ownsSession){
+            try {
+                session.close();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 删除自己的节点，不关闭会话
+     */
+    private void release() {
+        if(myZnode == null){
+            return;
+        }
         try {
             System.out.println("unlock " + myZnode);
             zk.delete(myZnode,-1);
+            session.getIndex(root, SPLIT_STR).removeLocal(nodeName());
             myZnode = null;
-            zk.close();
         } catch (InterruptedException e) {
             e.printStackTrace();
+        } catch (KeeperException.SessionExpiredException e) {
+            // 临时节点已随会话删除
+            myZnode = null;
         } catch (KeeperException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * 本次加锁的fencing token，交给下游存储校验
+     *
+     * @see FencingTokenValidator
+     */
+    public long getFencingToken() {
+        String znode = myZnode;
+        if(znode == null){
+            throw new IllegalMonitorStateException();
+        }
+        return FencingTokenValidator.tokenOf(znode);
+    }
+
+    private String nodeName() {
+        return myZnode.substring(myZnode.lastIndexOf("/") + 1);
+    }
+
     @Override
     public void lockInterruptibly() throws InterruptedException {
         this.lock();
     }
 
+    /**
+     * 创建条件变量，名字依次为condition0、condition1...
+     * 各进程需要以相同的顺序调用才能对应到同一个条件变量，否则请使用newCondition(String)
+     */
     @Override
     public Condition newCondition() {
-        return null;
+        return newCondition(new Owner());
+    }
+
+    /**
+     * 创建指定名字的条件变量，同一lockName下名字相同的条件变量在各进程间共享
+     *
+     * @param name 条件变量名
+     */
+    public Condition newCondition(String name) {
+        return newCondition(name, new Owner());
+    }
+
+    Condition newCondition(DistributedCondition.Owner owner) {
+        return newCondition("condition" + conditionCount++, owner);
+    }
+
+    private Condition newCondition(String name, DistributedCondition.Owner owner) {
+        if(exception.size() > 0){
+            throw new LockException(exception.get(0));
+        }
+        return new DistributedCondition(handle, owner, lockName, name);
+    }
+
+    /**
+     * 条件变量await时释放和重新获取当前锁
+     */
+    private class Owner implements DistributedCondition.Owner {
+        @Override
+        public void checkHeld() {
+            if(myZnode == null){
+                throw new IllegalMonitorStateException();
+            }
+        }
+
+        @Override
+        public int releaseAll() {
+            release();
+            return 1;
+        }
+
+        @Override
+        public void reacquire(int state) {
+            lock();
+        }
     }
      
-    public class LockException extends RuntimeException {
+    public static class LockException extends RuntimeException {
         private static final long serialVersionUID = 1L;
         public LockException(String e){
             super(e);
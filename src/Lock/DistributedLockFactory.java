@@ -0,0 +1,120 @@
+package Lock;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.zookeeper.KeeperException;
+
+/**
+    DistributedLockFactory factory = new DistributedLockFactory("127.0.0.1:2181", 4);
+    DistributedLock lock = factory.getLock("test");
+    lock.lock();
+    try {
+        //do something...
+    } finally {
+        lock.unlock();
+    }
+    ...
+    factory.close();
+ */
+
+/**
+ * 分布式锁工厂，所有锁共享一个会话池
+ *
+ * 取得的锁对象很轻量，unlock()后可以再次lock()，不会关闭底层会话。
+ * 锁对象在每次加锁时从池中取当前的会话，会话过期被替换后缓存的锁仍然可用。
+ */
+public class DistributedLockFactory {
+    public static final int DEFAULT_SESSION_TIMEOUT = 30000;
+
+    private final ZkSessionPool pool;
+    private final String root = "/locks";
+    // lockName -> 进程内唯一的可重入锁
+    private final ConcurrentHashMap<String, ReentrantDistributedLock> reentrantLocks = new ConcurrentHashMap<String, ReentrantDistributedLock>();
+
+    public DistributedLockFactory(String config, int poolSize) throws IOException, InterruptedException {
+        this(config, poolSize, DEFAULT_SESSION_TIMEOUT);
+    }
+
+    public DistributedLockFactory(String config, int poolSize, int sessionTimeout) throws IOException, InterruptedException {
+        pool = new ZkSessionPool(config, poolSize, sessionTimeout);
+        try {
+            for (int i = 0; i < pool.size(); i++) {
+                pool.next().ensurePath(root);
+            }
+        } catch (KeeperException e) {
+            pool.close();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * 取得一个锁对象
+     *
+     * @param lockName 竞争资源标志,lockName中不能包含单词lock
+     */
+    public DistributedLock getLock(String lockName) {
+        return new DistributedLock(pool, lockName);
+    }
+
+    /**
+     * 取得可重入锁，同一lockName在进程内返回同一个实例，可以在线程之间共享
+     *
+     * @param lockName 竞争资源标志,lockName中不能包含单词lock
+     */
+    public ReentrantDistributedLock getReentrantLock(String lockName) {
+        ReentrantDistributedLock lock = reentrantLocks.get(lockName);
+        if (lock == null) {
+            ReentrantDistributedLock created = new ReentrantDistributedLock(getLock(lockName));
+            lock = reentrantLocks.putIfAbsent(lockName, created);
+            if (lock == null) {
+                lock = created;
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * 取得读写锁，节点创建在 /locks/lockName 下
+     *
+     * @param lockName 竞争资源标志
+     */
+    public DistributedReadWriteLock getReadWriteLock(String lockName) {
+        return new DistributedReadWriteLock(pool, root, lockName);
+    }
+
+    /**
+     * 取得同时锁住多个lockName的锁，所有节点在一次multi()中创建
+     *
+     * @param lockNames 竞争资源标志,lockName中不能包含单词lock
+     */
+    public DistributedMultiLock getMultiLock(String... lockNames) {
+        return new DistributedMultiLock(pool, root, lockNames);
+    }
+
+    /**
+     * 取得信号量，所有进程对同一个name必须使用相同的maxLeases
+     *
+     * @param name      信号量名字
+     * @param maxLeases 同时存在的最大租约数
+     */
+    public InterProcessSemaphore getSemaphore(String name, int maxLeases) {
+        return new InterProcessSemaphore(pool, name, maxLeases);
+    }
+
+    /**
+     * 异步加锁，不阻塞调用线程
+     *
+     * 取得锁后future返回LockHandle，取消future会撤回排队中的节点。
+     *
+     * @param lockName 竞争资源标志,lockName中不能包含单词lock
+     */
+    public CompletableFuture<LockHandle> acquireAsync(String lockName) {
+        return new AsyncLockAcquisition(pool.next(), root, lockName).start();
+    }
+
+    public void close() throws InterruptedException {
+        pool.close();
+    }
+}
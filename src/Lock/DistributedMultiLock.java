@@ -0,0 +1,201 @@
+package Lock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+
+import Lock.DistributedLock.LockException;
+
+/**
+    DistributedMultiLock lock = factory.getMultiLock("test1", "test2");
+    lock.lock();
+    try {
+        //do something...
+    } finally {
+        lock.unlock();
+    }
+ */
+
+/**
+ * 同时持有多个lockName的锁
+ *
+ * 所有锁节点在一个multi()事务中创建，K个锁只需要一次往返；
+ * 事务是原子的，任意两个多锁请求在每个lockName的队列中先后顺序一致，
+ * 再按lockName的字典序依次等待，不会产生死锁。
+ * 节点格式与DistributedLock相同，可以和单个锁互斥。
+ */
+public class DistributedMultiLock implements Lock {
+    // 每次加锁时从中取得会话，池中的会话过期被替换后跟着换
+    private final SessionHandle handle;
+    // 本次加锁使用的会话，unlock()在同一个会话上删除节点
+    private LockSession session;
+    private ZooKeeper zk;
+    private final String root;
+    // 按全局顺序排好的lockName
+    private final List<String> lockNames;
+    // 当前持有或排队中的节点名，与lockNames一一对应
+    private List<String> myNodes;
+
+    DistributedMultiLock(ZkSessionPool pool, String root, Collection<String> lockNames) {
+        TreeSet<String> sorted = new TreeSet<String>(lockNames);
+        if (sorted.isEmpty()) {
+            throw new IllegalArgumentException("lockNames can not be empty");
+        }
+        for (String lockName : sorted) {
+            if (lockName.contains(DistributedLock.SPLIT_STR)) {
+                throw new LockException("lockName can not contains " + DistributedLock.SPLIT_STR);
+            }
+        }
+        this.handle = new SessionHandle(pool);
+        this.root = root;
+        this.lockNames = new ArrayList<String>(sorted);
+    }
+
+    DistributedMultiLock(ZkSessionPool pool, String root, String... lockNames) {
+        this(pool, root, Arrays.asList(lockNames));
+    }
+
+    public List<String> getLockNames() {
+        return lockNames;
+    }
+
+    @Override
+    public void lock() {
+        try {
+            acquire(Long.MAX_VALUE);
+        } catch (InterruptedException e) {
+            throw new LockException(e);
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        acquire(Long.MAX_VALUE);
+    }
+
+    @Override
+    public boolean tryLock() {
+        try {
+            return acquire(0);
+        } catch (InterruptedException e) {
+            throw new LockException(e);
+        }
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        return acquire(unit.toMillis(time));
+    }
+
+    private boolean acquire(long waitTime) throws InterruptedException {
+        long deadline = waitTime == Long.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis() + waitTime;
+        try {
+            session = handle.get();
+            zk = session.getZooKeeper();
+            session.ensurePath(root);
+            LockNodeIndex index = session.getIndex(root, DistributedLock.SPLIT_STR);
+            List<Op> ops = new ArrayList<Op>(lockNames.size());
+            for (String lockName : lockNames) {
+                ops.add(Op.create(root + "/" + lockName + DistributedLock.SPLIT_STR, new byte[0],
+                        ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL));
+            }
+            List<String> nodes = new ArrayList<String>(lockNames.size());
+            for (OpResult result : zk.multi(ops)) {
+                String path = ((OpResult.CreateResult) result).getPath();
+                String node = path.substring(path.lastIndexOf("/") + 1);
+                index.addLocal(node);
+                nodes.add(node);
+            }
+            myNodes = nodes;
+            // 全部节点在同一个multi()中创建，索引确认其中一个后，序号更小的节点都已在索引中。
+            // 确认只取决于监听刷新，不受调用方的等待时间限制，tryLock()也要等到确认
+            String last = nodes.get(nodes.size() - 1);
+            boolean confirmed;
+            try {
+                confirmed = index.awaitConfirmed(last, System.currentTimeMillis() + session.getSessionTimeout());
+            } catch (InterruptedException e) {
+                unlock();
+                throw e;
+            }
+            if (!confirmed) {
+                unlock();
+                throw new LockException(last + " not seen in children of " + root);
+            }
+            // 按全局顺序依次等待
+            for (String node : nodes) {
+                boolean acquired;
+                try {
+                    acquired = index.awaitFirst(node, deadline);
+                } catch (InterruptedException e) {
+                    unlock();
+                    throw e;
+                }
+                if (!acquired) {
+                    unlock();
+                    return false;
+                }
+            }
+            return true;
+        } catch (KeeperException.SessionExpiredException e) {
+            // 节点已随会话删除
+            myNodes = null;
+            throw new LockException(e);
+        } catch (KeeperException e) {
+            throw new LockException(e);
+        }
+    }
+
+    /**
+     * 在一个multi()中释放全部节点
+     */
+    @Override
+    public void unlock() {
+        List<String> nodes = myNodes;
+        if (nodes == null) {
+            return;
+        }
+        myNodes = null;
+        try {
+            LockNodeIndex index = session.getIndex(root, DistributedLock.SPLIT_STR);
+            List<Op> ops = new ArrayList<Op>(nodes.size());
+            for (String node : nodes) {
+                ops.add(Op.delete(root + "/" + node, -1));
+            }
+            try {
+                zk.multi(ops);
+            } catch (KeeperException.NoNodeException e) {
+                // 会话过期导致部分节点已不存在，整个事务回滚，逐个删除
+                for (String node : nodes) {
+                    try {
+                        zk.delete(root + "/" + node, -1);
+                    } catch (KeeperException.NoNodeException ignore) {
+                    }
+                }
+            }
+            for (String node : nodes) {
+                index.removeLocal(node);
+            }
+        } catch (KeeperException e) {
+            throw new LockException(e);
+        } catch (InterruptedException e) {
+            throw new LockException(e);
+        }
+    }
+
+    @Override
+    public Condition newCondition() {
+        throw new UnsupportedOperationException();
+    }
+}
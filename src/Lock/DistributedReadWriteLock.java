@@ -0,0 +1,258 @@
+package Lock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+
+import Lock.DistributedLock.LockException;
+
+/**
+    DistributedReadWriteLock rwLock = factory.getReadWriteLock("config");
+    rwLock.readLock().lock();
+    try {
+        //read something...
+    } finally {
+        rwLock.readLock().unlock();
+    }
+ */
+
+/**
+ * 分布式读写锁
+ *
+ * 在 /locks/lockName 下创建 read_ 或 write_ 临时顺序节点：
+ * 读锁只需等待排在自己前面最近的一个写节点，多个读者可以同时持有锁；
+ * 写锁等待紧挨着自己的前一个节点，不论它是读还是写。
+ * 每个等待者只监听一个节点，前一个节点删除时只唤醒一个等待者。
+ * 节点按线程记录，多个线程可以通过同一个实例各自加读锁；同一线程不能重入。
+ */
+public class DistributedReadWriteLock implements ReadWriteLock {
+    private static final String READ_PREFIX = "read_";
+    private static final String WRITE_PREFIX = "write_";
+    // 顺序节点序号的长度
+    private static final int SEQ_LENGTH = 10;
+
+    // 每次加锁时从中取得会话，池中的会话过期被替换后跟着换
+    private final SessionHandle handle;
+    private final String lockName;
+    // 该锁的父节点 /locks/lockName
+    private final String path;
+    // 写锁已创建的条件变量个数，用于生成默认的条件变量名
+    private final AtomicInteger conditionCount = new AtomicInteger();
+    private final Lock readLock = new Mutex(READ_PREFIX);
+    private final Lock writeLock = new Mutex(WRITE_PREFIX);
+
+    DistributedReadWriteLock(ZkSessionPool pool, String root, String lockName) {
+        this.handle = new SessionHandle(pool);
+        this.lockName = lockName;
+        this.path = root + "/" + lockName;
+    }
+
+    @Override
+    public Lock readLock() {
+        return readLock;
+    }
+
+    @Override
+    public Lock writeLock() {
+        return writeLock;
+    }
+
+    /**
+     * 按节点序号排序，read_和write_混在一起
+     */
+    private static final Comparator<String> BY_SEQUENCE = new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+            return sequenceOf(a).compareTo(sequenceOf(b));
+        }
+    };
+
+    private static String sequenceOf(String node) {
+        return node.substring(node.length() - SEQ_LENGTH);
+    }
+
+    /**
+     * 找出需要等待的节点
+     *
+     * @return 需要等待的节点，可以取得锁时返回null
+     */
+    private static String nodeToWaitFor(List<String> sorted, String myNode) {
+        int i = sorted.indexOf(myNode);
+        if (i < 0) {
+            throw new LockException("lock node " + myNode + " disappeared");
+        }
+        if (myNode.startsWith(WRITE_PREFIX)) {
+            return i == 0 ? null : sorted.get(i - 1);
+        }
+        for (int j = i - 1; j >= 0; j--) {
+            if (sorted.get(j).startsWith(WRITE_PREFIX)) {
+                return sorted.get(j);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 读锁和写锁的共同实现，只有节点前缀不同
+     */
+    private class Mutex implements Lock {
+        private final String prefix;
+        //当前线程持有的锁节点
+        private final ThreadLocal<String> myNode = new ThreadLocal<String>();
+
+        Mutex(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public void lock() {
+            try {
+                acquire(Long.MAX_VALUE);
+            } catch (KeeperException e) {
+                throw new LockException(e);
+            } catch (InterruptedException e) {
+                throw new LockException(e);
+            }
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            try {
+                acquire(Long.MAX_VALUE);
+            } catch (KeeperException e) {
+                throw new LockException(e);
+            }
+        }
+
+        @Override
+        public boolean tryLock() {
+            try {
+                return tryLock(0, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                throw new LockException(e);
+            }
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            try {
+                return acquire(unit.toMillis(time));
+            } catch (KeeperException e) {
+                throw new LockException(e);
+            }
+        }
+
+        private boolean acquire(long waitTime) throws KeeperException, InterruptedException {
+            if (myNode.get() != null) {
+                throw new LockException(prefix + " lock is not reentrant");
+            }
+            LockSession session = handle.get();
+            ZooKeeper zk = session.getZooKeeper();
+            session.ensurePath(path);
+            String created = zk.create(path + "/" + prefix, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
+            String node = created.substring(created.lastIndexOf("/") + 1);
+            myNode.set(node);
+            long deadline = waitTime == Long.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis() + waitTime;
+            try {
+                while (true) {
+                    List<String> children = new ArrayList<String>(zk.getChildren(path, false));
+                    Collections.sort(children, BY_SEQUENCE);
+                    String lower = nodeToWaitFor(children, node);
+                    if (lower == null) {
+                        return true;
+                    }
+                    final CountDownLatch latch = new CountDownLatch(1);
+                    Watcher watcher = new Watcher() {
+                        @Override
+                        public void process(WatchedEvent event) {
+                            latch.countDown();
+                        }
+                    };
+                    // 只监听需要等待的那一个节点，已经不存在则重新检查
+                    if (zk.exists(path + "/" + lower, watcher) == null) {
+                        continue;
+                    }
+                    if (deadline == Long.MAX_VALUE) {
+                        latch.await();
+                    } else {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0 || !latch.await(remaining, TimeUnit.MILLISECONDS)) {
+                            unlock();
+                            return false;
+                        }
+                    }
+                }
+            } catch (KeeperException e) {
+                unlock();
+                throw e;
+            } catch (InterruptedException e) {
+                unlock();
+                throw e;
+            }
+        }
+
+        @Override
+        public void unlock() {
+            String node = myNode.get();
+            if (node == null) {
+                return;
+            }
+            try {
+                // 加锁后会话过期被替换时，新会话上删除会得到NoNode
+                handle.get().getZooKeeper().delete(path + "/" + node, -1);
+            } catch (KeeperException.NoNodeException e) {
+                // 会话过期，节点已被删除
+            } catch (KeeperException e) {
+                throw new LockException(e);
+            } catch (InterruptedException e) {
+                throw new LockException(e);
+            } finally {
+                myNode.remove();
+            }
+        }
+
+        /**
+         * 写锁的条件变量，名字依次为write_condition0、write_condition1...，各进程需要以相同的顺序调用；
+         * 读锁是共享的，与ReentrantReadWriteLock一样不支持条件变量
+         */
+        @Override
+        public Condition newCondition() {
+            if (!WRITE_PREFIX.equals(prefix)) {
+                throw new UnsupportedOperationException();
+            }
+            return new DistributedCondition(handle, new DistributedCondition.Owner() {
+                @Override
+                public void checkHeld() {
+                    if (myNode.get() == null) {
+                        throw new IllegalMonitorStateException();
+                    }
+                }
+
+                @Override
+                public int releaseAll() {
+                    unlock();
+                    return 1;
+                }
+
+                @Override
+                public void reacquire(int state) {
+                    lock();
+                }
+            }, lockName, prefix + "condition" + conditionCount.getAndIncrement());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package Lock;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+    // 持锁方
+    long token = lock.getFencingToken();
+    storage.write(key, value, token);
+
+    // 存储方
+    if (!validator.validate(key, token)) {
+        throw new IllegalStateException("stale lock holder");
+    }
+ */
+
+/**
+ * 锁持有者的fencing token校验
+ *
+ * token取自锁节点的顺序号，同一父节点下后创建的节点序号一定更大。
+ * 持有者因为GC停顿导致会话过期后，新的持有者拿到的token更大，
+ * 存储层只接受不小于已见最大值的token，旧持有者的写入会被拒绝。
+ */
+public class FencingTokenValidator {
+    // 资源 -> 已见过的最大token
+    private final ConcurrentHashMap<String, AtomicLong> highest = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * 校验token，通过时记录为该资源的最大token
+     *
+     * @return token不小于已见最大值时返回true
+     */
+    public boolean validate(String resource, long token) {
+        AtomicLong max = highest.get(resource);
+        if (max == null) {
+            AtomicLong created = new AtomicLong(Long.MIN_VALUE);
+            max = highest.putIfAbsent(resource, created);
+            if (max == null) {
+                max = created;
+            }
+        }
+        while (true) {
+            long current = max.get();
+            if (token < current) {
+                return false;
+            }
+            if (token == current || max.compareAndSet(current, token)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 从顺序节点的路径中取出token
+     *
+     * @param path 例如 /locks/test_lock_0000000012
+     */
+    public static long tokenOf(String path) {
+        int i = path.length();
+        while (i > 0 && Character.isDigit(path.charAt(i - 1))) {
+            i--;
+        }
+        if (i == path.length()) {
+            throw new IllegalArgumentException(path + " is not a sequential node");
+        }
+        return Long.parseLong(path.substring(i));
+    }
+}
@@ -0,0 +1,225 @@
+package Lock;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+
+/**
+    InterProcessSemaphore semaphore = factory.getSemaphore("db", 10);
+    InterProcessSemaphore.Lease lease = semaphore.acquire();
+    try {
+        //access the resource...
+    } finally {
+        lease.close();
+    }
+ */
+
+/**
+ * 分布式信号量，最多允许maxLeases个租约同时存在
+ *
+ * 每个租约是 /semaphores/name 下的一个 lease- 临时顺序节点，按序号排队，
+ * 排在前maxLeases个的节点持有租约。一次申请多个租约时在一个multi()中创建全部节点，
+ * 这些节点序号连续，最后一个节点进入前maxLeases个即全部取得。
+ * 排队状态由会话共享的LockNodeIndex维护，只有租约被释放时才会唤醒等待者。
+ * 所有进程对同一个name必须使用相同的maxLeases。
+ */
+public class InterProcessSemaphore {
+    static final String ROOT = "/semaphores";
+    private static final String LEASE_PREFIX = "lease-";
+
+    // 每次申请时从中取得会话，池中的会话过期被替换后跟着换
+    private final SessionHandle handle;
+    private final String path;
+    private final int maxLeases;
+
+    InterProcessSemaphore(ZkSessionPool pool, String name, int maxLeases) {
+        if (maxLeases <= 0) {
+            throw new IllegalArgumentException("maxLeases must be positive");
+        }
+        this.handle = new SessionHandle(pool);
+        this.path = ROOT + "/" + name;
+        this.maxLeases = maxLeases;
+    }
+
+    /**
+     * 申请一个租约，一直等待直到取得
+     */
+    public Lease acquire() throws KeeperException, InterruptedException {
+        return acquire(1, Long.MAX_VALUE).iterator().next();
+    }
+
+    /**
+     * 申请qty个租约，一直等待直到全部取得
+     */
+    public Collection<Lease> acquire(int qty) throws KeeperException, InterruptedException {
+        return acquire(qty, Long.MAX_VALUE);
+    }
+
+    /**
+     * 在限定时间内申请一个租约
+     *
+     * @return 超时返回null
+     */
+    public Lease acquire(long time, TimeUnit unit) throws KeeperException, InterruptedException {
+        Collection<Lease> leases = acquire(1, unit.toMillis(time));
+        return leases == null ? null : leases.iterator().next();
+    }
+
+    /**
+     * 在限定时间内申请qty个租约
+     *
+     * @return 超时返回null，已创建的节点会被删除
+     */
+    public Collection<Lease> acquire(int qty, long time, TimeUnit unit) throws KeeperException, InterruptedException {
+        return acquire(qty, unit.toMillis(time));
+    }
+
+    private Collection<Lease> acquire(int qty, long waitTime) throws KeeperException, InterruptedException {
+        if (qty <= 0 || qty > maxLeases) {
+            throw new IllegalArgumentException("qty must be in [1, " + maxLeases + "]");
+        }
+        LockSession session = handle.get();
+        session.ensurePath(ROOT);
+        session.ensurePath(path);
+        LockNodeIndex index = session.getIndex(path, LEASE_PREFIX);
+        List<Lease> leases = create(qty, session.getZooKeeper(), index);
+        // 序号最大的节点排进前maxLeases个时，其余节点也一定在前面
+        String last = leases.get(leases.size() - 1).nodeName();
+        long deadline = waitTime == Long.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis() + waitTime;
+        try {
+            // 所有租约在同一个multi()中创建，列表包含最后一个节点时也包含其余节点和序号更小的租约。
+            // 确认只取决于监听刷新，不受调用方的等待时间限制，等待时间为0时也要等到确认
+            if (!index.awaitConfirmed(last, System.currentTimeMillis() + session.getSessionTimeout())) {
+                returnAll(leases);
+                throw new DistributedLock.LockException(last + " not seen in children of " + path);
+            }
+            while (true) {
+                final CountDownLatch latch = new CountDownLatch(1);
+                Runnable onReleased = new Runnable() {
+                    @Override
+                    public void run() {
+                        latch.countDown();
+                    }
+                };
+                if (index.watchRank(last, maxLeases, onReleased)) {
+                    return leases;
+                }
+                if (deadline == Long.MAX_VALUE) {
+                    latch.await();
+                } else {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0 || !latch.await(remaining, TimeUnit.MILLISECONDS)) {
+                        index.cancelRank(last, onReleased);
+                        returnAll(leases);
+                        return null;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            returnAll(leases);
+            throw e;
+        }
+    }
+
+    /**
+     * 在一个multi()中创建qty个租约节点
+     */
+    private List<Lease> create(int qty, ZooKeeper zk, LockNodeIndex index) throws KeeperException, InterruptedException {
+        List<Op> ops = new ArrayList<Op>(qty);
+        for (int i = 0; i < qty; i++) {
+            ops.add(Op.create(path + "/" + LEASE_PREFIX, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL));
+        }
+        List<Lease> leases = new ArrayList<Lease>(qty);
+        for (OpResult result : zk.multi(ops)) {
+            Lease lease = new Lease(zk, index, ((OpResult.CreateResult) result).getPath());
+            index.addLocal(lease.nodeName());
+            leases.add(lease);
+        }
+        return leases;
+    }
+
+    /**
+     * 在一个multi()中归还多个租约
+     */
+    public void returnAll(Collection<Lease> leases) throws KeeperException, InterruptedException {
+        if (leases.isEmpty()) {
+            return;
+        }
+        List<Op> ops = new ArrayList<Op>(leases.size());
+        for (Lease lease : leases) {
+            ops.add(Op.delete(lease.path, -1));
+        }
+        try {
+            // 同一次申请的租约属于同一个会话
+            leases.iterator().next().zk.multi(ops);
+        } catch (KeeperException.NoNodeException e) {
+            // 有节点已被删除，整个事务回滚，逐个删除剩下的
+            closeAll(leases);
+            return;
+        } catch (KeeperException.SessionExpiredException e) {
+            // 租约来自不同的会话，各自在自己的会话上删除
+            closeAll(leases);
+            return;
+        }
+        for (Lease lease : leases) {
+            lease.index.removeLocal(lease.nodeName());
+        }
+    }
+
+    private static void closeAll(Collection<Lease> leases) {
+        for (Lease lease : leases) {
+            lease.close();
+        }
+    }
+
+    /**
+     * 一个租约，close()即归还
+     */
+    public class Lease implements Closeable {
+        // 创建租约的会话
+        private final ZooKeeper zk;
+        private final LockNodeIndex index;
+        private final String path;
+
+        Lease(ZooKeeper zk, LockNodeIndex index, String path) {
+            this.zk = zk;
+            this.index = index;
+            this.path = path;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        String nodeName() {
+            return path.substring(path.lastIndexOf("/") + 1);
+        }
+
+        @Override
+        public void close() {
+            try {
+                zk.delete(path, -1);
+            } catch (KeeperException.NoNodeException e) {
+                // 已经归还或会话过期
+            } catch (KeeperException.SessionExpiredException e) {
+                // 临时节点已随会话删除
+            } catch (KeeperException e) {
+                throw new DistributedLock.LockException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DistributedLock.LockException(e);
+            }
+            index.removeLocal(nodeName());
+        }
+    }
+}
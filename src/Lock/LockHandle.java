@@ -0,0 +1,86 @@
+package Lock;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooKeeper;
+
+import Lock.DistributedLock.LockException;
+
+/**
+ * 已取得的锁，由DistributedLockFactory.acquireAsync()返回
+ *
+ * 句柄不和线程绑定，可以在任意线程释放。
+ */
+public class LockHandle {
+    private final ZooKeeper zk;
+    private final LockNodeIndex index;
+    private final String lockName;
+    // 锁节点的完整路径
+    private final String path;
+
+    LockHandle(ZooKeeper zk, LockNodeIndex index, String lockName, String path) {
+        this.zk = zk;
+        this.index = index;
+        this.lockName = lockName;
+        this.path = path;
+    }
+
+    public String getLockName() {
+        return lockName;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * 本次加锁的fencing token，交给下游存储校验
+     *
+     * @see FencingTokenValidator
+     */
+    public long getFencingToken() {
+        return FencingTokenValidator.tokenOf(path);
+    }
+
+    /**
+     * 同步释放锁
+     */
+    public void release() {
+        try {
+            zk.delete(path, -1);
+        } catch (KeeperException.NoNodeException e) {
+            // 会话过期，节点已被删除
+        } catch (KeeperException e) {
+            throw new LockException(e);
+        } catch (InterruptedException e) {
+            throw new LockException(e);
+        }
+        index.removeLocal(nodeName());
+    }
+
+    /**
+     * 异步释放锁，删除完成后future结束
+     */
+    public CompletableFuture<Void> releaseAsync() {
+        final CompletableFuture<Void> future = new CompletableFuture<Void>();
+        zk.delete(path, -1, new AsyncCallback.VoidCallback() {
+            @Override
+            public void processResult(int rc, String p, Object ctx) {
+                KeeperException.Code code = KeeperException.Code.get(rc);
+                if (code == KeeperException.Code.OK || code == KeeperException.Code.NONODE) {
+                    index.removeLocal(nodeName());
+                    future.complete(null);
+                } else {
+                    future.completeExceptionally(KeeperException.create(code, p));
+                }
+            }
+        }, null);
+        return future;
+    }
+
+    private String nodeName() {
+        return path.substring(path.lastIndexOf("/") + 1);
+    }
+}
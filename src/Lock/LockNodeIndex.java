@@ -0,0 +1,436 @@
+package Lock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * 锁节点的本地有序索引
+ *
+ * 每个会话对一个父节点只注册一个子节点监听，按照lockName把顺序节点分组排好序，
+ * 所有本地竞争者共享这份索引：查找前一个节点只需在内存中做一次O(log N)的查找，
+ * 前一个节点被删除时只唤醒等待它的竞争者，服务端的读请求次数只与节点变化次数有关。
+ *
+ * 刚创建的节点登记后，索引中可能还缺少序号更小的节点：其他会话的节点要等监听刷新后才出现，
+ * 本会话其他线程的节点要等它们各自调用addLocal()。因此在调用predecessor()、watchPredecessor()、
+ * awaitFirst()和watchRank()之前，必须先用awaitConfirmed()或whenConfirmed()等到服务端返回的列表中
+ * 包含自己的节点，那时所有序号更小且仍存在的节点都已在索引中。创建节点本身会触发子节点监听，不需要额外的读请求。
+ *
+ * 会话过期后监听不会再触发，索引立即唤醒所有等待者，之后的等待和登记都抛出SessionExpiredException。
+ */
+public class LockNodeIndex implements Watcher {
+    private final ZooKeeper zk;
+    private final String parent;
+    // 节点名中lockName与序号之间的分隔符
+    private final String splitStr;
+
+    // lockName -> 排好序的节点名
+    private final Map<String, TreeSet<String>> groups = new HashMap<String, TreeSet<String>>();
+    // 服务端最近一次返回的子节点
+    private Set<String> listing = new HashSet<String>();
+    // 本会话创建但还没有出现在列表中的节点
+    private final Set<String> localNodes = new HashSet<String>();
+    // 节点名 -> 等待该节点出现在服务端列表中的回调
+    private final Map<String, List<Runnable>> confirmWaiters = new HashMap<String, List<Runnable>>();
+    // 节点名 -> 等待该节点被删除的回调
+    private final Map<String, List<Runnable>> waiters = new HashMap<String, List<Runnable>>();
+    // lockName -> 等待该组内任意节点被删除的回调
+    private final Map<String, List<Runnable>> groupWaiters = new HashMap<String, List<Runnable>>();
+    // 已应用的父节点cversion，用来丢弃过期的列表
+    private int appliedVersion = -1;
+    // 第一次加载子节点的结果
+    private CompletableFuture<Void> started;
+    // 会话是否已过期
+    private volatile boolean expired = false;
+
+    private final AsyncCallback.Children2Callback refreshCallback = new AsyncCallback.Children2Callback() {
+        @Override
+        public void processResult(int rc, String path, Object ctx, List<String> children, Stat stat) {
+            KeeperException.Code code = KeeperException.Code.get(rc);
+            if (code == KeeperException.Code.OK) {
+                apply(children, stat.getCversion());
+            } else if (code == KeeperException.Code.CONNECTIONLOSS) {
+                refresh();
+            }
+        }
+    };
+
+    public LockNodeIndex(ZooKeeper zk, String parent, String splitStr) {
+        this.zk = zk;
+        this.parent = parent;
+        this.splitStr = splitStr;
+    }
+
+    /**
+     * 第一次使用前同步加载一次子节点，并注册监听
+     */
+    public void ensureStarted() throws KeeperException, InterruptedException {
+        try {
+            start().get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof KeeperException) {
+                throw (KeeperException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * 异步加载一次子节点并注册监听，可以在zookeeper的事件线程中调用
+     */
+    public synchronized CompletableFuture<Void> start() {
+        if (started == null) {
+            final CompletableFuture<Void> future = new CompletableFuture<Void>();
+            started = future;
+            zk.getChildren(parent, this, new AsyncCallback.Children2Callback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx, List<String> children, Stat stat) {
+                    KeeperException.Code code = KeeperException.Code.get(rc);
+                    if (code == KeeperException.Code.OK) {
+                        apply(children, stat.getCversion());
+                        future.complete(null);
+                    } else {
+                        synchronized (LockNodeIndex.this) {
+                            // 允许下一次调用重新加载
+                            started = null;
+                        }
+                        future.completeExceptionally(KeeperException.create(code, path));
+                    }
+                }
+            }, null);
+        }
+        return started;
+    }
+
+    @Override
+    public void process(WatchedEvent event) {
+        if (event.getState() == Event.KeeperState.Expired) {
+            expire();
+        } else if (event.getType() == Event.EventType.NodeChildrenChanged) {
+            refresh();
+        }
+    }
+
+    /**
+     * 会话已过期，唤醒所有等待者，由它们检查isExpired()后放弃
+     */
+    void expire() {
+        List<Runnable> fired = new ArrayList<Runnable>();
+        synchronized (this) {
+            if (expired) {
+                return;
+            }
+            expired = true;
+            for (List<Runnable> list : confirmWaiters.values()) {
+                fired.addAll(list);
+            }
+            for (List<Runnable> list : waiters.values()) {
+                fired.addAll(list);
+            }
+            for (List<Runnable> list : groupWaiters.values()) {
+                fired.addAll(list);
+            }
+            confirmWaiters.clear();
+            waiters.clear();
+            groupWaiters.clear();
+        }
+        run(fired);
+    }
+
+    public boolean isExpired() {
+        return expired;
+    }
+
+    private void checkExpired() throws KeeperException.SessionExpiredException {
+        if (expired) {
+            throw new KeeperException.SessionExpiredException();
+        }
+    }
+
+    private void refresh() {
+        zk.getChildren(parent, this, refreshCallback, null);
+    }
+
+    /**
+     * 应用一次服务端列表，并通知已被删除节点的等待者
+     */
+    private void apply(List<String> children, int cversion) {
+        List<Runnable> fired = new ArrayList<Runnable>();
+        synchronized (this) {
+            if (cversion < appliedVersion) {
+                return;
+            }
+            appliedVersion = cversion;
+            Set<String> current = new HashSet<String>(children);
+            for (String node : current) {
+                if (localNodes.remove(node)) {
+                    confirm(node, fired);
+                }
+            }
+            current.addAll(localNodes);
+            for (String node : listing) {
+                if (!current.contains(node)) {
+                    remove(node, fired);
+                }
+            }
+            for (String node : current) {
+                if (!listing.contains(node)) {
+                    add(node);
+                }
+            }
+            listing = current;
+        }
+        run(fired);
+    }
+
+    /**
+     * 登记本会话刚创建的节点，不必等待监听刷新
+     */
+    public void addLocal(String node) {
+        synchronized (this) {
+            localNodes.add(node);
+            if (listing.add(node)) {
+                add(node);
+            }
+        }
+    }
+
+    /**
+     * 本会话删除节点后调用，立即唤醒本地等待该节点的竞争者
+     */
+    public void removeLocal(String node) {
+        List<Runnable> fired = new ArrayList<Runnable>();
+        synchronized (this) {
+            if (localNodes.remove(node)) {
+                confirm(node, fired);
+            }
+            if (listing.remove(node)) {
+                remove(node, fired);
+            }
+        }
+        run(fired);
+    }
+
+    /**
+     * node已出现在服务端列表中时返回true，否则登记回调，出现在列表中、被本地删除或会话过期时执行
+     */
+    public synchronized boolean whenConfirmed(String node, Runnable onConfirmed) throws KeeperException.SessionExpiredException {
+        checkExpired();
+        if (!localNodes.contains(node)) {
+            return true;
+        }
+        register(confirmWaiters, node, onConfirmed);
+        return false;
+    }
+
+    /**
+     * 阻塞等待node出现在服务端列表中
+     *
+     * @param deadline 截止时间(毫秒)，Long.MAX_VALUE表示一直等待
+     * @return 是否在截止时间前出现在列表中
+     * @throws KeeperException.SessionExpiredException 等待期间会话过期
+     */
+    public boolean awaitConfirmed(String node, long deadline) throws InterruptedException, KeeperException.SessionExpiredException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        Runnable onConfirmed = new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+        if (whenConfirmed(node, onConfirmed)) {
+            return true;
+        }
+        if (deadline == Long.MAX_VALUE) {
+            latch.await();
+        } else {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0 || !latch.await(remaining, TimeUnit.MILLISECONDS)) {
+                synchronized (this) {
+                    unregister(confirmWaiters, node, onConfirmed);
+                }
+                return false;
+            }
+        }
+        checkExpired();
+        return true;
+    }
+
+    /**
+     * 同一lockName中排在node之前的节点
+     *
+     * @return 前一个节点，node已是最小节点时返回null
+     */
+    public synchronized String predecessor(String node) {
+        TreeSet<String> group = groups.get(lockNameOf(node));
+        return group == null ? null : group.lower(node);
+    }
+
+    /**
+     * 在前一个节点上登记回调，前一个节点被删除或会话过期时执行
+     *
+     * 查找与登记在同一把锁内完成，不会错过删除通知。
+     *
+     * @return 已登记的前一个节点，node已是最小节点时返回null
+     */
+    public String watchPredecessor(String node, Runnable onDeleted) throws KeeperException.SessionExpiredException {
+        synchronized (this) {
+            checkExpired();
+            String lower = predecessor(node);
+            if (lower != null) {
+                register(waiters, lower, onDeleted);
+            }
+            return lower;
+        }
+    }
+
+    /**
+     * 阻塞等待node成为同组中最小的节点
+     *
+     * @param deadline 截止时间(毫秒)，Long.MAX_VALUE表示一直等待
+     * @return 是否在截止时间前成为最小节点
+     * @throws KeeperException.SessionExpiredException 等待期间会话过期
+     */
+    public boolean awaitFirst(String node, long deadline) throws InterruptedException, KeeperException.SessionExpiredException {
+        while (true) {
+            final CountDownLatch latch = new CountDownLatch(1);
+            Runnable onDeleted = new Runnable() {
+                @Override
+                public void run() {
+                    latch.countDown();
+                }
+            };
+            String lower = watchPredecessor(node, onDeleted);
+            if (lower == null) {
+                return true;
+            }
+            if (deadline == Long.MAX_VALUE) {
+                latch.await();
+                continue;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0 || !latch.await(remaining, TimeUnit.MILLISECONDS)) {
+                cancel(lower, onDeleted);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 撤销登记的回调，用于等待超时
+     */
+    public synchronized void cancel(String node, Runnable onDeleted) {
+        unregister(waiters, node, onDeleted);
+    }
+
+    /**
+     * 判断node之前的节点数是否小于permits，不小于时登记回调，
+     * 同组内有节点被删除或会话过期时执行；新节点加入不会触发回调
+     *
+     * @return node之前的节点数是否小于permits
+     */
+    public boolean watchRank(String node, int permits, Runnable onRemoved) throws KeeperException.SessionExpiredException {
+        synchronized (this) {
+            checkExpired();
+            String lockName = lockNameOf(node);
+            TreeSet<String> group = groups.get(lockName);
+            int ahead = group == null ? 0 : group.headSet(node).size();
+            if (ahead < permits) {
+                return true;
+            }
+            register(groupWaiters, lockName, onRemoved);
+            return false;
+        }
+    }
+
+    /**
+     * 撤销watchRank登记的回调
+     */
+    public synchronized void cancelRank(String node, Runnable onRemoved) {
+        unregister(groupWaiters, lockNameOf(node), onRemoved);
+    }
+
+    private static void register(Map<String, List<Runnable>> map, String key, Runnable r) {
+        List<Runnable> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<Runnable>();
+            map.put(key, list);
+        }
+        list.add(r);
+    }
+
+    private static void unregister(Map<String, List<Runnable>> map, String key, Runnable r) {
+        List<Runnable> list = map.get(key);
+        if (list != null) {
+            list.remove(r);
+            if (list.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+
+    private String lockNameOf(String node) {
+        int i = node.lastIndexOf(splitStr);
+        return i < 0 ? null : node.substring(0, i);
+    }
+
+    private void add(String node) {
+        String lockName = lockNameOf(node);
+        if (lockName == null) {
+            return;
+        }
+        TreeSet<String> group = groups.get(lockName);
+        if (group == null) {
+            group = new TreeSet<String>();
+            groups.put(lockName, group);
+        }
+        group.add(node);
+    }
+
+    private void confirm(String node, List<Runnable> fired) {
+        List<Runnable> list = confirmWaiters.remove(node);
+        if (list != null) {
+            fired.addAll(list);
+        }
+    }
+
+    private void remove(String node, List<Runnable> fired) {
+        String lockName = lockNameOf(node);
+        TreeSet<String> group = lockName == null ? null : groups.get(lockName);
+        if (group != null) {
+            group.remove(node);
+            if (group.isEmpty()) {
+                groups.remove(lockName);
+            }
+            List<Runnable> list = groupWaiters.remove(lockName);
+            if (list != null) {
+                fired.addAll(list);
+            }
+        }
+        List<Runnable> list = waiters.remove(node);
+        if (list != null) {
+            fired.addAll(list);
+        }
+    }
+
+    private void run(List<Runnable> fired) {
+        for (Runnable r : fired) {
+            r.run();
+        }
+    }
+}
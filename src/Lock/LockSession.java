@@ -0,0 +1,124 @@
+package Lock;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+
+/**
+ * 一个长期存活的ZooKeeper会话，供多个锁对象共享
+ *
+ * 会话只负责连接状态，节点的监听由各个锁在调用exists/getChildren时显式传入。
+ * 会话过期后不能再使用，由ZkSessionPool换成新的会话，已确认的路径和索引随旧会话一起丢弃。
+ */
+public class LockSession implements Watcher {
+    private final ZooKeeper zk;
+    private final int sessionTimeout;
+    // 连接建立的信号
+    private final CountDownLatch connectedSignal = new CountDownLatch(1);
+    // 已确认存在的持久节点，避免每次加锁都执行一次exists
+    private final Set<String> knownPaths = ConcurrentHashMap.newKeySet();
+    // 父节点 -> 该会话共享的锁节点索引
+    private final ConcurrentHashMap<String, LockNodeIndex> indexes = new ConcurrentHashMap<String, LockNodeIndex>();
+    // 会话是否已过期
+    private volatile boolean expired = false;
+
+    public LockSession(String config, int sessionTimeout) throws IOException {
+        this.sessionTimeout = sessionTimeout;
+        zk = new ZooKeeper(config, sessionTimeout, this);
+    }
+
+    /**
+     * 等待会话连接建立
+     *
+     * @param timeout 超时时间(毫秒)
+     * @return 是否已连接
+     */
+    public boolean awaitConnected(long timeout) throws InterruptedException {
+        return connectedSignal.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void process(WatchedEvent event) {
+        if (event.getState() == Event.KeeperState.SyncConnected) {
+            connectedSignal.countDown();
+        } else if (event.getState() == Event.KeeperState.Expired) {
+            expired = true;
+            // 索引的子节点监听可能正处于刷新间隙，由会话统一通知一次
+            for (LockNodeIndex index : indexes.values()) {
+                index.expire();
+            }
+        }
+    }
+
+    public boolean isExpired() {
+        return expired;
+    }
+
+    /**
+     * 确保持久节点存在，同一路径在一个会话内只检查一次
+     */
+    public void ensurePath(String path) throws KeeperException, InterruptedException {
+        if (knownPaths.contains(path)) {
+            return;
+        }
+        if (zk.exists(path, false) == null) {
+            try {
+                zk.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            } catch (KeeperException.NodeExistsException e) {
+                // 其他客户端已经创建
+            }
+        }
+        knownPaths.add(path);
+    }
+
+    /**
+     * 取得父节点下锁节点的共享索引，同一会话同一父节点只有一个索引
+     *
+     * @param parent   父节点
+     * @param splitStr 节点名中lockName与序号之间的分隔符
+     */
+    public LockNodeIndex getIndex(String parent, String splitStr) throws KeeperException, InterruptedException {
+        LockNodeIndex index = indexOf(parent, splitStr);
+        index.ensureStarted();
+        return index;
+    }
+
+    /**
+     * 取得共享索引但不等待加载，异步调用方通过LockNodeIndex.start()等待
+     */
+    LockNodeIndex indexOf(String parent, String splitStr) {
+        LockNodeIndex index = indexes.get(parent);
+        if (index == null) {
+            LockNodeIndex created = new LockNodeIndex(zk, parent, splitStr);
+            index = indexes.putIfAbsent(parent, created);
+            if (index == null) {
+                index = created;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 会话超时时间(毫秒)，也用作等待索引确认新建节点的上限
+     */
+    public int getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    public ZooKeeper getZooKeeper() {
+        return zk;
+    }
+
+    public void close() throws InterruptedException {
+        zk.close();
+    }
+}
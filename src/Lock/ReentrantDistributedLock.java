@@ -0,0 +1,169 @@
+package Lock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+    ReentrantDistributedLock lock = factory.getReentrantLock("test");
+    lock.lock();
+    try {
+        lock.lock();    // 重入，不访问zookeeper
+        try {
+            //do something...
+        } finally {
+            lock.unlock();
+        }
+    } finally {
+        lock.unlock();
+    }
+ */
+
+/**
+ * 可重入的分布式锁
+ *
+ * 同一个lockName在一个进程内只有一个实例，本地线程之间先通过ReentrantLock竞争，
+ * 只有拿到本地锁的线程第一次加锁时才去zookeeper创建节点，所以每个进程对一个lockName
+ * 最多只有一个节点参与竞争；同一线程重入只增加持有计数，不访问服务端。
+ */
+public class ReentrantDistributedLock implements Lock {
+    // 本地锁，记录持有线程和重入次数
+    private final ReentrantLock local = new ReentrantLock();
+    // 真正参与zookeeper竞争的锁，只被持有本地锁的线程使用
+    private final DistributedLock delegate;
+
+    ReentrantDistributedLock(DistributedLock delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void lock() {
+        local.lock();
+        if (local.getHoldCount() > 1) {
+            return;
+        }
+        try {
+            delegate.lock();
+        } catch (RuntimeException e) {
+            local.unlock();
+            throw e;
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        local.lockInterruptibly();
+        if (local.getHoldCount() > 1) {
+            return;
+        }
+        try {
+            delegate.lockInterruptibly();
+        } catch (RuntimeException e) {
+            local.unlock();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (!local.tryLock()) {
+            return false;
+        }
+        if (local.getHoldCount() > 1) {
+            return true;
+        }
+        // 不等待，失败时删除已创建的节点
+        if (delegate.tryLock(0, TimeUnit.MILLISECONDS)) {
+            return true;
+        }
+        local.unlock();
+        return false;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(time);
+        if (!local.tryLock(time, unit)) {
+            return false;
+        }
+        if (local.getHoldCount() > 1) {
+            return true;
+        }
+        long remaining = Math.max(0, deadline - System.nanoTime());
+        if (delegate.tryLock(remaining, TimeUnit.NANOSECONDS)) {
+            return true;
+        }
+        local.unlock();
+        return false;
+    }
+
+    @Override
+    public void unlock() {
+        if (!local.isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException();
+        }
+        try {
+            if (local.getHoldCount() == 1) {
+                delegate.unlock();
+            }
+        } finally {
+            local.unlock();
+        }
+    }
+
+    /**
+     * 当前线程是否持有该锁
+     */
+    public boolean isHeldByCurrentThread() {
+        return local.isHeldByCurrentThread();
+    }
+
+    /**
+     * 当前线程的重入次数
+     */
+    public int getHoldCount() {
+        return local.getHoldCount();
+    }
+
+    /**
+     * 当前持有的fencing token，重入不会改变
+     */
+    public long getFencingToken() {
+        if (!local.isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException();
+        }
+        return delegate.getFencingToken();
+    }
+
+    /**
+     * 创建条件变量，await时释放全部重入次数，唤醒后恢复
+     */
+    @Override
+    public Condition newCondition() {
+        return delegate.newCondition(new DistributedCondition.Owner() {
+            @Override
+            public void checkHeld() {
+                if (!local.isHeldByCurrentThread()) {
+                    throw new IllegalMonitorStateException();
+                }
+            }
+
+            @Override
+            public int releaseAll() {
+                int holds = local.getHoldCount();
+                for (int i = 0; i < holds; i++) {
+                    unlock();
+                }
+                return holds;
+            }
+
+            @Override
+            public void reacquire(int holds) {
+                for (int i = 0; i < holds; i++) {
+                    lock();
+                }
+            }
+        });
+    }
+}
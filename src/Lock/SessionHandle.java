@@ -0,0 +1,35 @@
+package Lock;
+
+/**
+ * 跟随会话池替换的会话引用
+ *
+ * 锁对象可能长期存活(例如DistributedLockFactory缓存的可重入锁)，而池中的会话过期后会被换掉。
+ * 锁在每次加锁时通过get()取得会话，绑定的会话过期后从池中重新取一个，不会一直使用已过期的会话。
+ */
+class SessionHandle {
+    private final ZkSessionPool pool;
+    private LockSession session;
+
+    SessionHandle(ZkSessionPool pool) {
+        this.pool = pool;
+        this.session = pool.next();
+    }
+
+    /**
+     * 固定使用一个会话，不随池替换
+     */
+    SessionHandle(LockSession session) {
+        this.pool = null;
+        this.session = session;
+    }
+
+    /**
+     * 当前会话，已过期时从池中换一个
+     */
+    synchronized LockSession get() {
+        if (pool != null && session.isExpired()) {
+            session = pool.next();
+        }
+        return session;
+    }
+}
@@ -0,0 +1,95 @@
+package Lock;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 固定大小的ZooKeeper会话池
+ *
+ * 多个锁对象以轮询的方式复用少量长连接，避免每个锁都建立一次TCP连接和会话。
+ * 会话过期后，下一次轮到该位置时换成新的会话；新会话建立失败时跳过该位置。
+ */
+public class ZkSessionPool {
+    private final String config;
+    private final int sessionTimeout;
+    private final LockSession[] sessions;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param config         127.0.0.1:2181
+     * @param size           会话个数
+     * @param sessionTimeout 会话超时时间(毫秒)
+     */
+    public ZkSessionPool(String config, int size, int sessionTimeout) throws IOException, InterruptedException {
+        if (size <= 0) {
+            throw new IllegalArgumentException("pool size must be positive");
+        }
+        this.config = config;
+        this.sessionTimeout = sessionTimeout;
+        sessions = new LockSession[size];
+        try {
+            for (int i = 0; i < size; i++) {
+                sessions[i] = new LockSession(config, sessionTimeout);
+            }
+            for (LockSession session : sessions) {
+                if (!session.awaitConnected(sessionTimeout)) {
+                    throw new IOException("connect to " + config + " timeout");
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * 轮询取出一个未过期的会话
+     */
+    public LockSession next() {
+        int start = Math.floorMod(next.getAndIncrement(), sessions.length);
+        for (int k = 0; k < sessions.length; k++) {
+            LockSession session = live((start + k) % sessions.length);
+            if (session != null) {
+                return session;
+            }
+        }
+        // 全部会话都不可用，交给调用方的操作报告错误
+        return sessions[start];
+    }
+
+    /**
+     * 取出第i个会话，已过期时换成新的会话
+     *
+     * @return 新会话建立失败时返回null
+     */
+    private synchronized LockSession live(int i) {
+        LockSession session = sessions[i];
+        if (!session.isExpired()) {
+            return session;
+        }
+        try {
+            LockSession fresh = new LockSession(config, sessionTimeout);
+            sessions[i] = fresh;
+            try {
+                session.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return fresh;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public int size() {
+        return sessions.length;
+    }
+
+    public synchronized void close() throws InterruptedException {
+        for (LockSession session : sessions) {
+            if (session != null) {
+                session.close();
+            }
+        }
+    }
+}
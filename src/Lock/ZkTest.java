@@ -34,14 +34,21 @@ public class ZkTest {
         } catch (InterruptedException e1) {
             e1.printStackTrace();
         }
+        final DistributedLockFactory factory;
+        try {
+            // 60个锁对象共享4个会话
+            factory = new DistributedLockFactory("127.0.0.1:2183", 4);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return;
+        }
         ConcurrentTask[] tasks = new ConcurrentTask[60];
         for(int i=0;i<tasks.length;i++){
             ConcurrentTask task3 = new ConcurrentTask(){
                 @Override
                 public void run() {
-                    DistributedLock lock = null;
+                    DistributedLock lock = factory.getLock("test2");
                     try {
-                        lock = new DistributedLock("127.0.0.1:2183","test2");
                         lock.lock();
                         System.out.println("Thread " + Thread.currentThread().getId() + " running");
                     } catch (Exception e) {
@@ -56,5 +63,10 @@ public class ZkTest {
             tasks[i] = task3;
         }
         new ConcurrentTest(tasks);
+        try {
+            factory.close();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
     }
 }
\ No newline at end of file
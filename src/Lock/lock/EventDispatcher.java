@@ -0,0 +1,41 @@
+package Lock.lock;
+
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 共享会话的事件分发器
+ *
+ * 作为共享会话的默认监听器，按事件路径把通知分发给root匹配的客户端，
+ * 连接状态变化等不带路径的事件分发给所有客户端。
+ */
+class EventDispatcher implements Watcher {
+    private final CopyOnWriteArrayList<TestMainClient> clients = new CopyOnWriteArrayList<TestMainClient>();
+
+    void register(TestMainClient client) {
+        clients.addIfAbsent(client);
+    }
+
+    void unregister(TestMainClient client) {
+        clients.remove(client);
+    }
+
+    @Override
+    public void process(WatchedEvent event) {
+        String path = event.getPath();
+        for (TestMainClient client : clients) {
+            if (path == null || matches(client.root, path)) {
+                client.process(event);
+            }
+        }
+    }
+
+    /**
+     * path是否为root本身或root下的节点
+     */
+    private static boolean matches(String root, String path) {
+        return root != null && (path.equals(root) || path.startsWith(root + "/"));
+    }
+}
@@ -52,12 +52,14 @@ import java.util.List;
             getLock();
         }
         void waitForLock(String lower) throws InterruptedException, KeeperException {
-            Stat stat = zk.exists(root + "/" + lower,true);
-            if(stat != null){
-                mutex.wait();
-            }
-            else{
-                getLock();
+            synchronized (mutex) {
+                Stat stat = zk.exists(root + "/" + lower,true);
+                if(stat != null){
+                    mutex.wait();
+                }
+                else{
+                    getLock();
+                }
             }
         }
 
@@ -9,31 +9,44 @@ import java.io.IOException;
      
     /**
      * TestMainClient
+     * <p/>
+     * 同一JVM内的客户端共享一个会话，会话的事件由EventDispatcher按路径分发到root匹配的客户端，
+     * 每个客户端使用自己的mutex等待，互不干扰。
      */
     public class TestMainClient implements Watcher {
         protected static ZooKeeper zk = null;
-        protected static Integer mutex;
+        private static final EventDispatcher dispatcher = new EventDispatcher();
+        protected final Object mutex = new Object();
         int sessionTimeout = 10000;
         protected String root;
         public TestMainClient(String connectString) {
-            if(zk == null){
-                try {
+            dispatcher.register(this);
+            synchronized (TestMainClient.class) {
+                if(zk == null){
+                    try {
      
-                    String configFile = this.getClass().getResource("/").getPath()+"org/zk/leader/election/log4j.xml";
-                    DOMConfigurator.configure(configFile);
-                    System.out.println("创建一个新的连接:");
-                    zk = new ZooKeeper(connectString, sessionTimeout, this);
-                    mutex = new Integer(-1);
-                } catch (IOException e) {
-                    zk = null;
+                        String configFile = this.getClass().getResource("/").getPath()+"org/zk/leader/election/log4j.xml";
+                        DOMConfigurator.configure(configFile);
+                        System.out.println("创建一个新的连接:");
+                        zk = new ZooKeeper(connectString, sessionTimeout, dispatcher);
+                    } catch (IOException e) {
+                        zk = null;
+                    }
                 }
             }
         }
 
+        /**
+         * 不再接收事件
+         */
+        public void close() {
+            dispatcher.unregister(this);
+        }
+
         @Override
-       synchronized public void process(WatchedEvent event) {
+        public void process(WatchedEvent event) {
             synchronized (mutex) {
-                mutex.notify();
+                mutex.notifyAll();
             }
         }
     }
\ No newline at end of file
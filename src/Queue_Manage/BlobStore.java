@@ -0,0 +1,26 @@
+package Queue_Manage;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 队列元素的外部存储，zookeeper中只保存引用
+ */
+public interface BlobStore {
+    /**
+     * 保存数据
+     *
+     * @return 数据的引用
+     */
+    String put(InputStream in) throws IOException;
+
+    /**
+     * 按引用读取数据
+     */
+    InputStream open(String key) throws IOException;
+
+    /**
+     * 删除数据
+     */
+    void delete(String key) throws IOException;
+}
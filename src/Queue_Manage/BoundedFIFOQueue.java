@@ -0,0 +1,144 @@
+package Queue_Manage;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 有容量上限的FIFO队列
+ *
+ * 元素个数通过exists(root)返回的Stat.numChildren取得，不需要列出全部子节点；
+ * 队列已满时offer()立即返回false，put()和带超时的offer()等待消费者取走元素。
+ * 只有队列已满时才注册子节点监听，同一个实例中所有等待的生产者共用这一个监听，
+ * 监听触发后各自用exists(root)重新读取元素个数，任何方式的消费者取走元素都能唤醒生产者。
+ * produce()与put()相同，会等待空位；produceBatch()等待能容纳整批元素的空位；
+ * 异步流水线生产无法检查容量，不支持。
+ * 检查与创建不是原子操作，多个生产者同时写入时元素个数可能短暂超过容量，超出量不大于生产者个数。
+ */
+public class BoundedFIFOQueue extends FIFOQueue {
+    private final int capacity;
+    private final Object spaceMonitor = new Object();
+    // 是否已注册子节点监听，监听触发前不重复注册
+    private boolean watching = false;
+
+    private final Watcher spaceWatcher = new Watcher() {
+        @Override
+        public void process(WatchedEvent event) {
+            synchronized (spaceMonitor) {
+                watching = false;
+                spaceMonitor.notifyAll();
+            }
+        }
+    };
+
+    /**
+     * Constructor
+     *
+     * @param connectString
+     * @param root
+     * @param capacity 队列容量
+     */
+    BoundedFIFOQueue(String connectString, String root, int capacity) {
+        super(connectString, root);
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * 当前元素个数
+     */
+    int size() throws KeeperException, InterruptedException {
+        Stat stat = zk.exists(root, false);
+        return stat == null ? 0 : stat.getNumChildren();
+    }
+
+    /**
+     * 队列未满时入队，已满时立即返回false
+     */
+    boolean offer(int i) throws KeeperException, InterruptedException {
+        if (size() >= capacity) {
+            return false;
+        }
+        return super.produce(i);
+    }
+
+    /**
+     * 队列已满时最多等待timeout
+     *
+     * @return 超时返回false
+     */
+    boolean offer(int i, long timeout, TimeUnit unit) throws KeeperException, InterruptedException {
+        if (!awaitSpace(1, System.currentTimeMillis() + unit.toMillis(timeout))) {
+            return false;
+        }
+        return super.produce(i);
+    }
+
+    /**
+     * 队列已满时一直等待
+     */
+    void put(int i) throws KeeperException, InterruptedException {
+        awaitSpace(1, Long.MAX_VALUE);
+        super.produce(i);
+    }
+
+    /**
+     * 与put()相同，队列已满时一直等待
+     */
+    @Override
+    boolean produce(int i) throws KeeperException, InterruptedException {
+        put(i);
+        return true;
+    }
+
+    /**
+     * 等到能容纳整批元素时再批量生产
+     */
+    @Override
+    int produceBatch(int... values) throws KeeperException, InterruptedException {
+        if (values.length > capacity) {
+            throw new IllegalArgumentException("batch size exceeds capacity " + capacity);
+        }
+        awaitSpace(values.length, Long.MAX_VALUE);
+        return super.produceBatch(values);
+    }
+
+    @Override
+    PipelinedProducer pipelinedProducer(int window) {
+        throw new UnsupportedOperationException("pipelined producer can not respect capacity");
+    }
+
+    /**
+     * 等待队列能再容纳needed个元素
+     *
+     * @param deadline 截止时间(毫秒)，Long.MAX_VALUE表示一直等待
+     * @return 超时返回false
+     */
+    private boolean awaitSpace(int needed, long deadline) throws KeeperException, InterruptedException {
+        synchronized (spaceMonitor) {
+            while (size() + needed > capacity) {
+                if (!watching) {
+                    // 只有队列已满时才注册子节点监听，注册后再检查一次，避免错过注册前的删除
+                    zk.getChildren(root, spaceWatcher);
+                    watching = true;
+                    continue;
+                }
+                if (deadline == Long.MAX_VALUE) {
+                    spaceMonitor.wait();
+                } else {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    spaceMonitor.wait(remaining);
+                }
+            }
+            return true;
+        }
+    }
+}
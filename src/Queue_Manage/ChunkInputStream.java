@@ -0,0 +1,119 @@
+package Queue_Manage;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooKeeper;
+
+/**
+ * 按顺序读取分块节点的输入流
+ *
+ * 读当前分块时异步预取下一个分块，内存中最多同时保存两个分块；
+ * 关闭时删除所有分块节点和分块目录。
+ */
+class ChunkInputStream extends InputStream {
+    private final ZooKeeper zk;
+    private final String dir;
+    private final int chunkCount;
+    // 下一个要预取的分块
+    private int nextFetch = 0;
+    private PrefetchingConsumer.Fetch ahead;
+    private byte[] current = new byte[0];
+    private int pos = 0;
+    private boolean closed = false;
+
+    ChunkInputStream(ZooKeeper zk, String dir, int chunkCount) {
+        this.zk = zk;
+        this.dir = dir;
+        this.chunkCount = chunkCount;
+        ahead = fetchNext();
+    }
+
+    static String chunkPath(String dir, int i) {
+        return String.format("%s/chunk-%010d", dir, i);
+    }
+
+    private PrefetchingConsumer.Fetch fetchNext() {
+        if (nextFetch >= chunkCount) {
+            return null;
+        }
+        PrefetchingConsumer.Fetch fetch = new PrefetchingConsumer.Fetch(chunkPath(dir, nextFetch++));
+        zk.getData(fetch.name, false, fetch, null);
+        return fetch;
+    }
+
+    /**
+     * 当前分块读完时切换到已预取的下一个分块
+     *
+     * @return 没有更多数据时返回false
+     */
+    private boolean advance() throws IOException {
+        while (pos >= current.length) {
+            if (ahead == null) {
+                return false;
+            }
+            try {
+                ahead.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            KeeperException.Code code = KeeperException.Code.get(ahead.rc);
+            if (code != KeeperException.Code.OK) {
+                throw new IOException(KeeperException.create(code, ahead.name));
+            }
+            current = ahead.data;
+            pos = 0;
+            ahead = fetchNext();
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!advance()) {
+            return -1;
+        }
+        return current[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!advance()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            for (int i = 0; i < chunkCount; i++) {
+                try {
+                    zk.delete(chunkPath(dir, i), -1);
+                } catch (KeeperException.NoNodeException e) {
+                    // 已被删除
+                }
+            }
+            zk.delete(dir, -1);
+        } catch (KeeperException.NoNodeException e) {
+            // 已被删除
+        } catch (KeeperException e) {
+            throw new IOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+}
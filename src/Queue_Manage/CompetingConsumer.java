@@ -0,0 +1,62 @@
+package Queue_Manage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.zookeeper.ZooKeeper;
+
+/**
+ * 多消费者竞争同一队列时使用的消费者
+ *
+ * 多个消费者都去领取最小的元素时，只有一个能删除成功，其余的往返都被浪费。
+ * 这里按元素的顺序号分组：编号为i的消费者只领取顺序号 % M == i 的元素，
+ * 顺序号在创建时确定，各消费者在不同时间列出子节点也能得到相同的分组，彼此不会争抢。
+ * 自己的分组为空时才领取其他分组中最早的prefetch个元素，接手停止消费的消费者留下的元素；
+ * 领取仍然通过按版本删除完成，失败的一方直接在本地换下一个候选，不需要重新列出子节点。
+ * 总体上仍接近FIFO，并发消费能力随消费者数量增长。
+ */
+public class CompetingConsumer extends PrefetchingConsumer {
+    private static final int SEQ_LENGTH = 10;
+    private final int prefetch;
+    private final int consumerIndex;
+    private final int consumerCount;
+
+    /**
+     * @param zk            会话
+     * @param root          队列根节点，例如 /app1
+     * @param prefetch      预取的元素个数
+     * @param consumerIndex 本消费者的编号，从0开始
+     * @param consumerCount 消费者总数
+     */
+    CompetingConsumer(ZooKeeper zk, String root, int prefetch, int consumerIndex, int consumerCount) {
+        super(zk, root, prefetch);
+        if (consumerCount <= 0 || consumerIndex < 0 || consumerIndex >= consumerCount) {
+            throw new IllegalArgumentException("consumerIndex must be in [0, consumerCount)");
+        }
+        this.prefetch = prefetch;
+        this.consumerIndex = consumerIndex;
+        this.consumerCount = consumerCount;
+    }
+
+    @Override
+    List<String> order(List<String> children) {
+        List<String> sorted = new ArrayList<String>(children);
+        Collections.sort(sorted);
+        List<String> own = new ArrayList<String>();
+        List<String> others = new ArrayList<String>();
+        for (String child : sorted) {
+            if (sequenceOf(child) % consumerCount == consumerIndex) {
+                own.add(child);
+            } else if (others.size() < prefetch) {
+                others.add(child);
+            }
+        }
+        // 先领取属于自己的元素，自己的分组为空时才取其他分组最早的几个
+        return own.isEmpty() ? others : own;
+    }
+
+    private static long sequenceOf(String name) {
+        return Long.parseLong(name.substring(name.length() - SEQ_LENGTH));
+    }
+}
@@ -0,0 +1,204 @@
+package Queue_Manage;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import Lock.lock.TestMainClient;
+import org.apache.log4j.Logger;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * 双重屏障
+ *
+ * 进入：每个成员创建 root/members/name- 临时顺序节点，再通过exists(root/members)
+ * 返回的Stat.numChildren得到已到达的成员数，不需要列出全部成员；
+ * 到达数等于size的成员创建 root/ready，其余成员只监听 root/ready 这一个节点。
+ * 离开：成员删除自己的节点后同样检查numChildren，最后一个离开的成员创建 root/gone，
+ * 其余成员监听 root/gone。
+ * 创建 root/ready 和超时撤回节点都在multi()中按版本修改 root/members 的数据，两者互斥：
+ * 撤回在前则创建者读到的版本已过期，重新计数时不再包含撤回的成员；创建在前则撤回失败，该成员算作已进入。
+ * 每个成员进入和离开各只需常数次读请求，成千上万个成员时也不会产生O(N²)的读开销。
+ * 屏障只使用一次，下一轮请使用新的root。
+ */
+public class DoubleBarrier extends TestMainClient {
+    public static final Logger logger = Logger.getLogger(DoubleBarrier.class);
+    int size;
+    String name;
+    private final String members;
+    // 本成员创建的节点
+    private String myNode;
+
+    /**
+     * 构造函数
+     *
+     * @param connectString 服务器连接
+     * @param root          根目录
+     * @param size          成员个数
+     */
+    DoubleBarrier(String connectString, String root, int size) {
+        super(connectString);
+        this.root = root;
+        this.size = size;
+        this.members = root + "/members";
+        if (zk != null) {
+            try {
+                for (String path : new String[]{root, members}) {
+                    Stat s = zk.exists(path, false);
+                    if (s == null) {
+                        createIfAbsent(path);
+                    }
+                }
+            } catch (KeeperException e) {
+                logger.error(e);
+            } catch (InterruptedException e) {
+                logger.error(e);
+            }
+        }
+        try {
+            name = InetAddress.getLocalHost().getCanonicalHostName();
+        } catch (UnknownHostException e) {
+            logger.error(e);
+        }
+    }
+
+    /**
+     * 进入屏障，等待所有成员到达
+     *
+     * @return 超时返回false，此时已撤回自己的节点；撤回前屏障已打开则仍返回true
+     */
+    boolean enter(long timeout, TimeUnit unit) throws KeeperException, InterruptedException {
+        myNode = zk.create(members + "/" + name + "-", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
+        if (openIfFull()) {
+            return true;
+        }
+        if (awaitFlag(root + "/ready", timeout, unit)) {
+            return true;
+        }
+        return withdraw();
+    }
+
+    /**
+     * 到达数等于size时创建ready，创建的同时按读到的版本修改members，期间有成员撤回则重新计数
+     *
+     * @return ready是否已存在
+     */
+    private boolean openIfFull() throws KeeperException, InterruptedException {
+        while (true) {
+            Stat stat = zk.exists(members, false);
+            if (stat.getNumChildren() < size) {
+                return false;
+            }
+            try {
+                zk.multi(Arrays.asList(
+                        Op.setData(members, new byte[0], stat.getVersion()),
+                        Op.create(root + "/ready", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT)));
+                return true;
+            } catch (KeeperException.NodeExistsException e) {
+                // 其他成员已经创建
+                return true;
+            } catch (KeeperException.BadVersionException e) {
+                // 有成员撤回，重新计数
+            }
+        }
+    }
+
+    /**
+     * 超时撤回自己的节点，与创建ready互斥
+     *
+     * @return ready已在撤回前创建时返回true，此时保留节点，算作已进入
+     */
+    private boolean withdraw() throws KeeperException, InterruptedException {
+        while (true) {
+            Stat stat = zk.exists(members, false);
+            if (zk.exists(root + "/ready", false) != null) {
+                return true;
+            }
+            try {
+                zk.multi(Arrays.asList(
+                        Op.setData(members, new byte[0], stat.getVersion()),
+                        Op.delete(myNode, -1)));
+                myNode = null;
+                return false;
+            } catch (KeeperException.BadVersionException e) {
+                // ready刚被创建或其他成员刚撤回，重新检查
+            }
+        }
+    }
+
+    /**
+     * 离开屏障，等待所有成员离开
+     *
+     * @return 超时返回false
+     */
+    boolean leave(long timeout, TimeUnit unit) throws KeeperException, InterruptedException {
+        if (myNode != null) {
+            zk.delete(myNode, -1);
+            myNode = null;
+        }
+        if (arrived() == 0) {
+            createIfAbsent(root + "/gone");
+            return true;
+        }
+        return awaitFlag(root + "/gone", timeout, unit);
+    }
+
+    /**
+     * 当前的成员数，只读取父节点的Stat
+     */
+    private int arrived() throws KeeperException, InterruptedException {
+        Stat stat = zk.exists(members, false);
+        return stat == null ? 0 : stat.getNumChildren();
+    }
+
+    private void createIfAbsent(String path) throws KeeperException, InterruptedException {
+        try {
+            zk.create(path, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        } catch (KeeperException.NodeExistsException e) {
+            // 其他成员已经创建
+        }
+    }
+
+    /**
+     * 监听标志节点，等待它被创建
+     */
+    private boolean awaitFlag(String path, long timeout, TimeUnit unit) throws KeeperException, InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        Stat stat = zk.exists(path, new Watcher() {
+            @Override
+            public void process(WatchedEvent event) {
+                if (event.getType() == Event.EventType.NodeCreated) {
+                    latch.countDown();
+                }
+            }
+        });
+        if (stat != null) {
+            return true;
+        }
+        return latch.await(timeout, unit);
+    }
+
+    public static void main(String args[]) {
+        String connectString = "localhost:2181";
+        int size = 1;
+        DoubleBarrier b = new DoubleBarrier(connectString, "/barrier", size);
+        try {
+            if (b.enter(30, TimeUnit.SECONDS)) {
+                System.out.println("所有成员已到达，可以开始执行后面的任务了");
+                b.leave(30, TimeUnit.SECONDS);
+            }
+        } catch (KeeperException e) {
+            logger.error(e);
+        } catch (InterruptedException e) {
+            logger.error(e);
+        }
+    }
+}
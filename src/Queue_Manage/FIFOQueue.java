@@ -4,12 +4,15 @@ import Lock.lock.TestMainClient;
 import org.apache.log4j.Logger;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.data.Stat;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * FIFOQueue
@@ -19,6 +22,16 @@ import java.util.List;
  */
 public class FIFOQueue extends TestMainClient {
     public static final Logger logger = Logger.getLogger(FIFOQueue.class);
+    // 一个multi()事务中最多包含的元素个数，避免请求超过jute.maxbuffer
+    static final int MAX_BATCH = 1000;
+    private static final int DEFAULT_PREFETCH = 16;
+    // poll()/take()使用的消费者，每个线程一个，等待时使用自己的监听而不是共享的mutex
+    private final ThreadLocal<PrefetchingConsumer> poller = new ThreadLocal<PrefetchingConsumer>() {
+        @Override
+        protected PrefetchingConsumer initialValue() {
+            return new PrefetchingConsumer(zk, root, DEFAULT_PREFETCH);
+        }
+    };
 
     /**
      * Constructor
@@ -50,15 +63,70 @@ public class FIFOQueue extends TestMainClient {
      */
 
     boolean produce(int i) throws KeeperException, InterruptedException{
-        ByteBuffer b = ByteBuffer.allocate(4);
-        byte[] value;
-        b.putInt(i);
-        value = b.array();
-        zk.create(root + "/element", value, ZooDefs.Ids.OPEN_ACL_UNSAFE,
+        zk.create(root + "/element", toBytes(i), ZooDefs.Ids.OPEN_ACL_UNSAFE,
                 CreateMode.PERSISTENT_SEQUENTIAL);
         return true;
     }
 
+    /**
+     * 批量生产，每MAX_BATCH个元素合并为一个multi()事务
+     *
+     * 同一事务内的元素序号连续，顺序与参数顺序一致。
+     *
+     * @param values
+     * @return 入队的元素个数
+     */
+    int produceBatch(int... values) throws KeeperException, InterruptedException{
+        List<Op> ops = new ArrayList<Op>(Math.min(values.length, MAX_BATCH));
+        for (int value : values) {
+            ops.add(Op.create(root + "/element", toBytes(value), ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT_SEQUENTIAL));
+            if (ops.size() == MAX_BATCH) {
+                zk.multi(ops);
+                ops.clear();
+            }
+        }
+        if (!ops.isEmpty()) {
+            zk.multi(ops);
+        }
+        return values.length;
+    }
+
+    /**
+     * 创建异步流水线生产者
+     *
+     * @param window 同时在途的create请求数
+     */
+    PipelinedProducer pipelinedProducer(int window) {
+        return new PipelinedProducer(zk, root + "/element", window);
+    }
+
+    /**
+     * 创建带预取缓冲的消费者
+     *
+     * @param prefetch 预取的元素个数
+     */
+    PrefetchingConsumer prefetchingConsumer(int prefetch) {
+        return new PrefetchingConsumer(zk, root, prefetch);
+    }
+
+    /**
+     * 创建多消费者竞争模式下的消费者
+     *
+     * @param prefetch      预取的元素个数
+     * @param consumerIndex 本消费者的编号，从0开始
+     * @param consumerCount 消费者总数
+     */
+    CompetingConsumer competingConsumer(int prefetch, int consumerIndex, int consumerCount) {
+        return new CompetingConsumer(zk, root, prefetch, consumerIndex, consumerCount);
+    }
+
+    static byte[] toBytes(int i) {
+        ByteBuffer b = ByteBuffer.allocate(4);
+        b.putInt(i);
+        return b.array();
+    }
+
 
     /**
      * 消费者
@@ -93,6 +161,23 @@ public class FIFOQueue extends TestMainClient {
         }
     }
 
+    /**
+     * 消费者，队列为空时最多等待timeout
+     *
+     * @return 元素，超时返回null
+     */
+    Integer poll(long timeout, TimeUnit unit) throws KeeperException, InterruptedException {
+        byte[] b = poller.get().pollBytes(unit.toMillis(timeout));
+        return b == null ? null : ByteBuffer.wrap(b).getInt();
+    }
+
+    /**
+     * 消费者，队列为空时一直等待
+     */
+    int take() throws KeeperException, InterruptedException {
+        return ByteBuffer.wrap(poller.get().consumeBytes()).getInt();
+    }
+
     @Override
     public void process(WatchedEvent event) {
         super.process(event);
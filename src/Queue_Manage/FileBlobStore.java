@@ -0,0 +1,54 @@
+package Queue_Manage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * 基于本地目录的BlobStore，每个元素一个文件
+ *
+ * 生产者和消费者需要能访问同一个目录，例如共享挂载的文件系统。
+ */
+public class FileBlobStore implements BlobStore {
+    private final File dir;
+
+    public FileBlobStore(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("can not create " + dir);
+        }
+        this.dir = dir;
+    }
+
+    @Override
+    public String put(InputStream in) throws IOException {
+        String key = UUID.randomUUID().toString();
+        OutputStream out = new FileOutputStream(new File(dir, key));
+        try {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            out.close();
+        }
+        return key;
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return new FileInputStream(new File(dir, key));
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        File file = new File(dir, key);
+        if (file.exists() && !file.delete()) {
+            throw new IOException("can not delete " + file);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package Queue_Manage;
+
+import Lock.lock.TestMainClient;
+import org.apache.log4j.Logger;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.Stat;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * 支持大数据元素的FIFO队列
+ *
+ * 小于inlineLimit的数据直接保存在元素节点中；
+ * 更大的数据在配置了BlobStore时写入BlobStore，元素节点只保存引用，
+ * 否则按chunkSize切分写入 root-chunks/id/chunk-i，全部分块写完后才创建元素节点。
+ * 消费者以输入流的形式逐块读取，不需要把整个数据放在内存中，关闭流时清理分块或外部数据。
+ */
+public class PayloadQueue extends TestMainClient {
+    public static final Logger logger = Logger.getLogger(PayloadQueue.class);
+    public static final int DEFAULT_INLINE_LIMIT = 64 * 1024;
+    public static final int DEFAULT_CHUNK_SIZE = 512 * 1024;
+    private static final int DEFAULT_PREFETCH = 4;
+
+    private final String chunkRoot;
+    // 可以为null，此时大数据以分块节点保存
+    private final BlobStore blobStore;
+    private final int inlineLimit;
+    private final int chunkSize;
+    private final PrefetchingConsumer consumer;
+
+    PayloadQueue(String connectString, String root, BlobStore blobStore) {
+        this(connectString, root, blobStore, DEFAULT_INLINE_LIMIT, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param connectString
+     * @param root
+     * @param blobStore   外部存储，为null时使用分块节点
+     * @param inlineLimit 直接保存在元素节点中的最大字节数
+     * @param chunkSize   每个分块节点的字节数，需小于jute.maxbuffer
+     */
+    PayloadQueue(String connectString, String root, BlobStore blobStore, int inlineLimit, int chunkSize) {
+        super(connectString);
+        this.root = root;
+        this.chunkRoot = root + "-chunks";
+        this.blobStore = blobStore;
+        this.inlineLimit = inlineLimit;
+        this.chunkSize = chunkSize;
+        this.consumer = new PrefetchingConsumer(zk, root, DEFAULT_PREFETCH);
+        if (zk != null) {
+            try {
+                for (String path : new String[]{root, chunkRoot}) {
+                    Stat s = zk.exists(path, false);
+                    if (s == null) {
+                        zk.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+                    }
+                }
+            } catch (KeeperException e) {
+                logger.error(e);
+            } catch (InterruptedException e) {
+                logger.error(e);
+            }
+        }
+    }
+
+    /**
+     * 生产者
+     */
+    void produce(byte[] payload) throws KeeperException, InterruptedException, IOException {
+        produce(new ByteArrayInputStream(payload));
+    }
+
+    /**
+     * 生产者，数据从输入流中读取
+     */
+    void produce(InputStream in) throws KeeperException, InterruptedException, IOException {
+        byte[] first = new byte[Math.max(inlineLimit + 1, chunkSize)];
+        int n = readFully(in, first);
+        byte[] item;
+        if (n <= inlineLimit) {
+            item = QueueItem.inline(first, n);
+        } else if (blobStore != null) {
+            CountingInputStream counting = new CountingInputStream(
+                    new SequenceInputStream(new ByteArrayInputStream(first, 0, n), in));
+            String key = blobStore.put(counting);
+            item = QueueItem.blob(key, counting.count);
+        } else {
+            item = writeChunks(first, n, in);
+        }
+        zk.create(root + "/element", item, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT_SEQUENTIAL);
+    }
+
+    /**
+     * 逐块写入分块节点，内存占用不随数据大小增长
+     */
+    private byte[] writeChunks(byte[] first, int n, InputStream in) throws KeeperException, InterruptedException, IOException {
+        String dir = chunkRoot + "/" + UUID.randomUUID();
+        zk.create(dir, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        InputStream data = new SequenceInputStream(new ByteArrayInputStream(first, 0, n), in);
+        byte[] buffer = new byte[chunkSize];
+        long length = 0;
+        int chunkCount = 0;
+        int read;
+        while ((read = readFully(data, buffer)) > 0) {
+            byte[] chunk = read == buffer.length ? buffer : Arrays.copyOf(buffer, read);
+            zk.create(ChunkInputStream.chunkPath(dir, chunkCount++), chunk, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            length += read;
+        }
+        return QueueItem.chunked(dir, chunkCount, length);
+    }
+
+    /**
+     * 消费者，返回元素数据的输入流，队列为空时一直等待
+     *
+     * 读完后需要关闭输入流，以删除分块节点或外部数据。
+     */
+    InputStream consume() throws KeeperException, InterruptedException, IOException {
+        final QueueItem item = QueueItem.decode(consumer.consumeBytes());
+        switch (item.type) {
+            case QueueItem.CHUNKED:
+                return new ChunkInputStream(zk, item.ref, item.chunkCount);
+            case QueueItem.BLOB:
+                return new FilterInputStream(blobStore.open(item.ref)) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        blobStore.delete(item.ref);
+                    }
+                };
+            default:
+                return new ByteArrayInputStream(item.payload);
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        int n;
+        while (total < buffer.length && (n = in.read(buffer, total, buffer.length - total)) != -1) {
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * 记录读取的字节数
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package Queue_Manage;
+
+import java.util.concurrent.Semaphore;
+
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+
+/**
+ * 异步流水线生产者
+ *
+ * 使用异步create连续发送请求，最多window个请求同时在途，
+ * 入队速度取决于带宽而不是单个请求的往返延迟。
+ * 同一会话的请求按发送顺序执行，元素顺序与produce()的调用顺序一致。
+ */
+public class PipelinedProducer {
+    private final ZooKeeper zk;
+    // 元素节点的前缀，例如 /app1/element
+    private final String prefix;
+    private final int window;
+    private final Semaphore inFlight;
+    // 第一个失败的请求
+    private volatile KeeperException error;
+
+    private final AsyncCallback.StringCallback callback = new AsyncCallback.StringCallback() {
+        @Override
+        public void processResult(int rc, String path, Object ctx, String name) {
+            KeeperException.Code code = KeeperException.Code.get(rc);
+            if (code != KeeperException.Code.OK && error == null) {
+                error = KeeperException.create(code, path);
+            }
+            inFlight.release();
+        }
+    };
+
+    PipelinedProducer(ZooKeeper zk, String prefix, int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be positive");
+        }
+        this.zk = zk;
+        this.prefix = prefix;
+        this.window = window;
+        this.inFlight = new Semaphore(window);
+    }
+
+    /**
+     * 发送一个元素，在途请求达到window时阻塞
+     */
+    public void produce(int i) throws KeeperException, InterruptedException {
+        checkError();
+        inFlight.acquire();
+        zk.create(prefix, FIFOQueue.toBytes(i), ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT_SEQUENTIAL, callback, null);
+    }
+
+    /**
+     * 等待所有在途请求完成
+     *
+     * @throws KeeperException 有请求失败时抛出第一个错误
+     */
+    public void flush() throws KeeperException, InterruptedException {
+        inFlight.acquire(window);
+        inFlight.release(window);
+        checkError();
+    }
+
+    private void checkError() throws KeeperException {
+        KeeperException e = error;
+        if (e != null) {
+            throw e;
+        }
+    }
+}
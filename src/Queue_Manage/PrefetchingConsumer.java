@@ -0,0 +1,193 @@
+package Queue_Manage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * 带预取缓冲的FIFO队列消费者
+ *
+ * 一次getChildren取得的列表排好序缓存在本地，按顺序逐个领取，缓冲用完才重新列出子节点；
+ * 后面prefetch个元素的数据通过异步getData提前取回，领取时只需一次delete。
+ * 消费N个元素的开销从O(N²)降为O(N log N)。
+ */
+public class PrefetchingConsumer {
+    private final ZooKeeper zk;
+    private final String root;
+    private final int prefetch;
+    // 还未发出getData的元素
+    private final Deque<String> pending = new ArrayDeque<String>();
+    // 已发出getData的元素，按顺序排列
+    private final Deque<Fetch> fetching = new ArrayDeque<Fetch>();
+
+    /**
+     * 一个已发出的异步getData
+     */
+    static class Fetch implements AsyncCallback.DataCallback {
+        final String name;
+        final CountDownLatch done = new CountDownLatch(1);
+        int rc;
+        byte[] data;
+        Stat stat;
+
+        Fetch(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void processResult(int rc, String path, Object ctx, byte[] data, Stat stat) {
+            this.rc = rc;
+            this.data = data;
+            this.stat = stat;
+            done.countDown();
+        }
+    }
+
+    /**
+     * @param zk       会话
+     * @param root     队列根节点，例如 /app1
+     * @param prefetch 预取的元素个数
+     */
+    PrefetchingConsumer(ZooKeeper zk, String root, int prefetch) {
+        if (prefetch <= 0) {
+            throw new IllegalArgumentException("prefetch must be positive");
+        }
+        this.zk = zk;
+        this.root = root;
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * 消费一个元素，队列为空时一直等待
+     */
+    int consume() throws KeeperException, InterruptedException {
+        return ByteBuffer.wrap(consumeBytes()).getInt();
+    }
+
+    /**
+     * 消费一个元素并返回原始数据，队列为空时一直等待
+     */
+    byte[] consumeBytes() throws KeeperException, InterruptedException {
+        return pollBytes(Long.MAX_VALUE);
+    }
+
+    /**
+     * 消费一个元素并返回原始数据，队列为空时最多等待timeout毫秒
+     *
+     * @param timeout 等待时间(毫秒)，Long.MAX_VALUE表示一直等待
+     * @return 超时返回null
+     */
+    byte[] pollBytes(long timeout) throws KeeperException, InterruptedException {
+        long deadline = timeout == Long.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+        while (true) {
+            Fetch fetch = next();
+            if (fetch == null) {
+                if (!awaitChildren(deadline)) {
+                    return null;
+                }
+                continue;
+            }
+            byte[] data = claim(fetch);
+            if (data != null) {
+                return data;
+            }
+        }
+    }
+
+    /**
+     * 取出下一个已预取的元素，本地缓冲为空时重新列出一次子节点
+     *
+     * @return 队列为空时返回null
+     */
+    Fetch next() throws KeeperException, InterruptedException {
+        if (fetching.isEmpty() && pending.isEmpty()) {
+            List<String> children = zk.getChildren(root, false);
+            if (children.isEmpty()) {
+                return null;
+            }
+            pending.addAll(order(children));
+        }
+        fill();
+        return fetching.poll();
+    }
+
+    /**
+     * 对新列出的子节点排序，子类可以调整领取顺序
+     */
+    List<String> order(List<String> children) {
+        List<String> sorted = new ArrayList<String>(children);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * 补齐预取窗口
+     */
+    private void fill() {
+        while (fetching.size() < prefetch && !pending.isEmpty()) {
+            Fetch fetch = new Fetch(pending.poll());
+            zk.getData(root + "/" + fetch.name, false, fetch, null);
+            fetching.add(fetch);
+        }
+    }
+
+    /**
+     * 领取一个元素：按getData时的版本删除，删除成功才算领取到
+     *
+     * @return 元素数据，已被其他消费者领取时返回null
+     */
+    byte[] claim(Fetch fetch) throws KeeperException, InterruptedException {
+        fetch.done.await();
+        KeeperException.Code code = KeeperException.Code.get(fetch.rc);
+        if (code == KeeperException.Code.NONODE) {
+            return null;
+        }
+        if (code != KeeperException.Code.OK) {
+            throw KeeperException.create(code, root + "/" + fetch.name);
+        }
+        try {
+            zk.delete(root + "/" + fetch.name, fetch.stat.getVersion());
+        } catch (KeeperException.NoNodeException e) {
+            return null;
+        }
+        return fetch.data;
+    }
+
+    /**
+     * 队列为空，注册子节点监听等待新元素
+     *
+     * @param deadline 截止时间(毫秒)，Long.MAX_VALUE表示一直等待
+     * @return 超时返回false
+     */
+    private boolean awaitChildren(long deadline) throws KeeperException, InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        List<String> children = zk.getChildren(root, new Watcher() {
+            @Override
+            public void process(WatchedEvent event) {
+                latch.countDown();
+            }
+        });
+        if (!children.isEmpty()) {
+            pending.addAll(order(children));
+            return true;
+        }
+        if (deadline == Long.MAX_VALUE) {
+            latch.await();
+            return true;
+        }
+        long remaining = deadline - System.currentTimeMillis();
+        return remaining > 0 && latch.await(remaining, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,86 @@
+package Queue_Manage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 队列元素节点中保存的数据格式
+ *
+ * 第一个字节是类型：
+ * INLINE  之后直接是数据；
+ * CHUNKED 之后是总长度、分块个数和分块所在的目录；
+ * BLOB    之后是总长度和BlobStore中的引用。
+ */
+final class QueueItem {
+    static final byte INLINE = 0;
+    static final byte CHUNKED = 1;
+    static final byte BLOB = 2;
+
+    final byte type;
+    // INLINE时的数据
+    final byte[] payload;
+    // CHUNKED时的分块目录，BLOB时的引用
+    final String ref;
+    final int chunkCount;
+    final long length;
+
+    private QueueItem(byte type, byte[] payload, String ref, int chunkCount, long length) {
+        this.type = type;
+        this.payload = payload;
+        this.ref = ref;
+        this.chunkCount = chunkCount;
+        this.length = length;
+    }
+
+    static byte[] inline(byte[] payload, int length) {
+        byte[] data = new byte[length + 1];
+        data[0] = INLINE;
+        System.arraycopy(payload, 0, data, 1, length);
+        return data;
+    }
+
+    static byte[] chunked(String dir, int chunkCount, long length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(CHUNKED);
+        out.writeLong(length);
+        out.writeInt(chunkCount);
+        out.writeUTF(dir);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    static byte[] blob(String key, long length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(BLOB);
+        out.writeLong(length);
+        out.writeUTF(key);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    static QueueItem decode(byte[] data) throws IOException {
+        switch (data[0]) {
+            case INLINE:
+                return new QueueItem(INLINE, Arrays.copyOfRange(data, 1, data.length), null, 0, data.length - 1);
+            case CHUNKED: {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 1, data.length - 1));
+                long length = in.readLong();
+                int chunkCount = in.readInt();
+                return new QueueItem(CHUNKED, null, in.readUTF(), chunkCount, length);
+            }
+            case BLOB: {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 1, data.length - 1));
+                long length = in.readLong();
+                return new QueueItem(BLOB, null, in.readUTF(), 0, length);
+            }
+            default:
+                throw new IOException("unknown queue item type " + data[0]);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package Queue_Manage;
+
+import Lock.lock.TestMainClient;
+import org.apache.log4j.Logger;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.Stat;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 可靠队列，消费者处理完成后确认才删除元素
+ *
+ * 领取元素时在 root-leases 下创建与元素同名的临时节点作为租约，
+ * 租约的创建与元素存在性检查在一个multi()中完成；元素本身仍留在队列中。
+ * ack()在一个multi()中删除元素和租约；消费者会话过期后租约自动消失，
+ * 其他消费者通过租约目录的子节点监听发现后重新领取该元素。
+ * 领取和确认都支持批量，一次multi()完成多个元素。
+ */
+public class ReliableQueue extends TestMainClient {
+    public static final Logger logger = Logger.getLogger(ReliableQueue.class);
+
+    private final String leaseRoot;
+    // 本地候选元素，按顺序号排序
+    private final TreeSet<String> candidates = new TreeSet<String>();
+    // 最近一次看到的租约
+    private Set<String> leases = new HashSet<String>();
+    private boolean leasesStale = true;
+    private final Object monitor = new Object();
+
+    private final Watcher leaseWatcher = new Watcher() {
+        @Override
+        public void process(WatchedEvent event) {
+            synchronized (monitor) {
+                leasesStale = true;
+                monitor.notifyAll();
+            }
+        }
+    };
+
+    private final Watcher elementWatcher = new Watcher() {
+        @Override
+        public void process(WatchedEvent event) {
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+    };
+
+    /**
+     * 已领取但尚未确认的元素
+     */
+    public static class Delivery {
+        final String name;
+        final int value;
+
+        Delivery(String name, int value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        public int getValue() {
+            return value;
+        }
+    }
+
+    ReliableQueue(String connectString, String root) {
+        super(connectString);
+        this.root = root;
+        this.leaseRoot = root + "-leases";
+        if (zk != null) {
+            try {
+                for (String path : new String[]{root, leaseRoot}) {
+                    Stat s = zk.exists(path, false);
+                    if (s == null) {
+                        zk.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+                    }
+                }
+            } catch (KeeperException e) {
+                logger.error(e);
+            } catch (InterruptedException e) {
+                logger.error(e);
+            }
+        }
+    }
+
+    /**
+     * 生产者
+     */
+    boolean produce(int i) throws KeeperException, InterruptedException {
+        zk.create(root + "/element", FIFOQueue.toBytes(i), ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT_SEQUENTIAL);
+        return true;
+    }
+
+    /**
+     * 领取一个元素，队列为空时最多等待timeout
+     *
+     * @return 超时返回null
+     */
+    Delivery poll(long timeout, TimeUnit unit) throws KeeperException, InterruptedException {
+        List<Delivery> deliveries = pollBatch(1, timeout, unit);
+        return deliveries.isEmpty() ? null : deliveries.get(0);
+    }
+
+    /**
+     * 批量领取最多max个元素，队列为空时最多等待timeout
+     *
+     * @return 超时返回空列表
+     */
+    List<Delivery> pollBatch(int max, long timeout, TimeUnit unit) throws KeeperException, InterruptedException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (true) {
+            List<String> names;
+            synchronized (monitor) {
+                refresh();
+                names = new ArrayList<String>(max);
+                while (names.size() < max && !candidates.isEmpty()) {
+                    names.add(candidates.pollFirst());
+                }
+                if (names.isEmpty()) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return Collections.emptyList();
+                    }
+                    monitor.wait(remaining);
+                    continue;
+                }
+            }
+            List<Delivery> deliveries = claim(names);
+            if (!deliveries.isEmpty()) {
+                return deliveries;
+            }
+        }
+    }
+
+    /**
+     * 刷新本地候选：租约有变化时找出消失的租约重新投递，候选用完时重新列出元素
+     */
+    private void refresh() throws KeeperException, InterruptedException {
+        if (leasesStale) {
+            leasesStale = false;
+            Set<String> current = new HashSet<String>(zk.getChildren(leaseRoot, leaseWatcher));
+            List<String> vanished = new ArrayList<String>();
+            for (String name : leases) {
+                if (!current.contains(name)) {
+                    vanished.add(name);
+                }
+            }
+            if (!vanished.isEmpty()) {
+                // 租约消失大多是因为元素已被确认删除，先用一次读请求确认元素仍在，
+                // 只重新投递会话过期或被放弃的元素，避免每次ack都让其他消费者发出注定失败的multi()
+                Set<String> elements = new HashSet<String>(zk.getChildren(root, elementWatcher));
+                for (String name : vanished) {
+                    if (elements.contains(name) && !current.contains(name)) {
+                        candidates.add(name);
+                    }
+                }
+            }
+            leases = current;
+        }
+        if (candidates.isEmpty()) {
+            for (String name : zk.getChildren(root, elementWatcher)) {
+                if (!leases.contains(name)) {
+                    candidates.add(name);
+                }
+            }
+        }
+    }
+
+    /**
+     * 领取元素：检查元素存在并创建租约，先整批尝试，失败时逐个领取
+     */
+    private List<Delivery> claim(List<String> names) throws KeeperException, InterruptedException {
+        List<String> claimed = new ArrayList<String>(names.size());
+        try {
+            zk.multi(claimOps(names));
+            claimed.addAll(names);
+        } catch (KeeperException.NoNodeException e) {
+            claimEach(names, claimed);
+        } catch (KeeperException.NodeExistsException e) {
+            claimEach(names, claimed);
+        }
+        List<Delivery> deliveries = new ArrayList<Delivery>(claimed.size());
+        for (String name : claimed) {
+            try {
+                byte[] b = zk.getData(root + "/" + name, false, null);
+                deliveries.add(new Delivery(name, ByteBuffer.wrap(b).getInt()));
+            } catch (KeeperException.NoNodeException e) {
+                release(name);
+            }
+        }
+        return deliveries;
+    }
+
+    private void claimEach(List<String> names, List<String> claimed) throws KeeperException, InterruptedException {
+        for (String name : names) {
+            try {
+                zk.multi(claimOps(Collections.singletonList(name)));
+                claimed.add(name);
+            } catch (KeeperException.NoNodeException e) {
+                // 已被确认删除
+            } catch (KeeperException.NodeExistsException e) {
+                // 已被其他消费者领取
+            }
+        }
+    }
+
+    private List<Op> claimOps(List<String> names) {
+        List<Op> ops = new ArrayList<Op>(names.size() * 2);
+        for (String name : names) {
+            ops.add(Op.check(root + "/" + name, -1));
+            ops.add(Op.create(leaseRoot + "/" + name, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL));
+        }
+        return ops;
+    }
+
+    /**
+     * 确认一个元素已处理完成
+     */
+    void ack(Delivery delivery) throws KeeperException, InterruptedException {
+        ackAll(Collections.singletonList(delivery));
+    }
+
+    /**
+     * 在一个multi()中确认多个元素，删除元素和对应的租约
+     */
+    void ackAll(Collection<Delivery> deliveries) throws KeeperException, InterruptedException {
+        List<Op> ops = new ArrayList<Op>(deliveries.size() * 2);
+        for (Delivery delivery : deliveries) {
+            ops.add(Op.delete(root + "/" + delivery.name, -1));
+            ops.add(Op.delete(leaseRoot + "/" + delivery.name, -1));
+        }
+        zk.multi(ops);
+    }
+
+    /**
+     * 放弃一个元素，删除租约后其他消费者可以重新领取
+     */
+    void release(Delivery delivery) throws KeeperException, InterruptedException {
+        release(delivery.name);
+    }
+
+    private void release(String name) throws KeeperException, InterruptedException {
+        try {
+            zk.delete(leaseRoot + "/" + name, -1);
+        } catch (KeeperException.NoNodeException e) {
+            // 租约已不存在
+        }
+    }
+}
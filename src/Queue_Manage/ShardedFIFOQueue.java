@@ -0,0 +1,206 @@
+package Queue_Manage;
+
+import Lock.lock.TestMainClient;
+import org.apache.log4j.Logger;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.Stat;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分片FIFO队列
+ *
+ * 元素分散在 root/shard-0 ... root/shard-(K-1) 下，每个分片内按顺序号排序，
+ * 单次getChildren的返回大小随分片数下降，也不再只有一个父节点成为热点。
+ * 消费者默认轮流消费各分片，也可以指定亲和的分片；
+ * 开启全局有序时比较各分片队首元素的czxid，按创建顺序消费。
+ */
+public class ShardedFIFOQueue extends TestMainClient {
+    public static final Logger logger = Logger.getLogger(ShardedFIFOQueue.class);
+    private static final int DEFAULT_PREFETCH = 16;
+
+    private final String[] shards;
+    private final PrefetchingConsumer[] consumers;
+    // 全局有序模式下各分片已预取的队首元素
+    private final PrefetchingConsumer.Fetch[] heads;
+    private final boolean globalOrder;
+    private final AtomicInteger nextProduce = new AtomicInteger();
+    private int nextConsume = 0;
+
+    /**
+     * Constructor
+     *
+     * @param connectString
+     * @param root
+     * @param shardCount  分片个数
+     * @param globalOrder 是否按全局创建顺序消费
+     */
+    ShardedFIFOQueue(String connectString, String root, int shardCount, boolean globalOrder) {
+        super(connectString);
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shardCount must be positive");
+        }
+        this.root = root;
+        this.globalOrder = globalOrder;
+        shards = new String[shardCount];
+        consumers = new PrefetchingConsumer[shardCount];
+        heads = new PrefetchingConsumer.Fetch[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = root + "/shard-" + i;
+            consumers[i] = new PrefetchingConsumer(zk, shards[i], DEFAULT_PREFETCH);
+        }
+        if (zk != null) {
+            try {
+                ensure(root);
+                for (String shard : shards) {
+                    ensure(shard);
+                }
+            } catch (KeeperException e) {
+                logger.error(e);
+            } catch (InterruptedException e) {
+                logger.error(e);
+            }
+        }
+    }
+
+    private void ensure(String path) throws KeeperException, InterruptedException {
+        Stat s = zk.exists(path, false);
+        if (s == null) {
+            try {
+                zk.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            } catch (KeeperException.NodeExistsException e) {
+                // 其他客户端已经创建
+            }
+        }
+    }
+
+    /**
+     * 生产者，轮流写入各分片
+     */
+    boolean produce(int i) throws KeeperException, InterruptedException {
+        return produce(Math.floorMod(nextProduce.getAndIncrement(), shards.length), i);
+    }
+
+    /**
+     * 生产者，按key写入固定的分片，同一key的元素保持顺序
+     */
+    boolean produce(Object key, int i) throws KeeperException, InterruptedException {
+        return produce(Math.floorMod(key.hashCode(), shards.length), i);
+    }
+
+    private boolean produce(int shard, int i) throws KeeperException, InterruptedException {
+        zk.create(shards[shard] + "/element", FIFOQueue.toBytes(i), ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT_SEQUENTIAL);
+        return true;
+    }
+
+    /**
+     * 消费者，队列为空时一直等待
+     */
+    int consume() throws KeeperException, InterruptedException {
+        while (true) {
+            byte[] data = globalOrder ? consumeOldest() : consumeRoundRobin();
+            if (data != null) {
+                return ByteBuffer.wrap(data).getInt();
+            }
+            awaitAny();
+        }
+    }
+
+    /**
+     * 只消费指定分片，分片为空时一直等待
+     */
+    int consume(int shard) throws KeeperException, InterruptedException {
+        return consumers[shard].consume();
+    }
+
+    /**
+     * 从上次的位置开始轮流尝试各分片
+     *
+     * @return 所有分片都为空时返回null
+     */
+    private byte[] consumeRoundRobin() throws KeeperException, InterruptedException {
+        for (int n = 0; n < shards.length; n++) {
+            int shard = nextConsume;
+            nextConsume = (nextConsume + 1) % shards.length;
+            PrefetchingConsumer.Fetch fetch;
+            while ((fetch = consumers[shard].next()) != null) {
+                byte[] data = consumers[shard].claim(fetch);
+                if (data != null) {
+                    return data;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 比较各分片队首元素的czxid，领取最早创建的元素
+     *
+     * @return 所有分片都为空时返回null
+     */
+    private byte[] consumeOldest() throws KeeperException, InterruptedException {
+        while (true) {
+            int oldest = -1;
+            for (int i = 0; i < shards.length; i++) {
+                PrefetchingConsumer.Fetch head = head(i);
+                if (head != null && (oldest < 0 || head.stat.getCzxid() < heads[oldest].stat.getCzxid())) {
+                    oldest = i;
+                }
+            }
+            if (oldest < 0) {
+                return null;
+            }
+            PrefetchingConsumer.Fetch fetch = heads[oldest];
+            heads[oldest] = null;
+            byte[] data = consumers[oldest].claim(fetch);
+            if (data != null) {
+                return data;
+            }
+        }
+    }
+
+    /**
+     * 分片当前的队首元素，跳过已被其他消费者删除的元素
+     */
+    private PrefetchingConsumer.Fetch head(int shard) throws KeeperException, InterruptedException {
+        while (heads[shard] == null) {
+            PrefetchingConsumer.Fetch fetch = consumers[shard].next();
+            if (fetch == null) {
+                return null;
+            }
+            fetch.done.await();
+            if (KeeperException.Code.get(fetch.rc) == KeeperException.Code.OK) {
+                heads[shard] = fetch;
+            }
+        }
+        return heads[shard];
+    }
+
+    /**
+     * 所有分片都为空，在每个分片上注册子节点监听，任意分片有新元素即返回
+     */
+    private void awaitAny() throws KeeperException, InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        Watcher watcher = new Watcher() {
+            @Override
+            public void process(WatchedEvent event) {
+                latch.countDown();
+            }
+        };
+        for (String shard : shards) {
+            List<String> children = zk.getChildren(shard, watcher);
+            if (!children.isEmpty()) {
+                return;
+            }
+        }
+        latch.await();
+    }
+}
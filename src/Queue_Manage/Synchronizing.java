@@ -93,7 +93,7 @@ public class Synchronizing extends TestMainClient {
 
     @Override
     public void process(WatchedEvent event) {
-        if (event.getPath().equals(root + "/start") && event.getType() == Event.EventType.NodeCreated) {
+        if ((root + "/start").equals(event.getPath()) && event.getType() == Event.EventType.NodeCreated) {
             System.out.println("得到通知");
             super.process(event);
             doAction();
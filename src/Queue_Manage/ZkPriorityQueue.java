@@ -0,0 +1,204 @@
+package Queue_Manage;
+
+import Lock.lock.TestMainClient;
+import org.apache.log4j.Logger;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.Stat;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * 优先级队列
+ *
+ * 元素节点名为 element-p优先级-创建时间-顺序号，例如 element-p005-1415868580000-0000000012，
+ * 优先级越大越先被消费，同一优先级内按顺序号先进先出。
+ * 子节点列表缓存在本地，按优先级分组排好序。消费者自己的删除也会触发子节点通知，
+ * 因此收到通知后并不立即重新列出：本地索引为空时才马上列出，否则距上次列出至少RELOAD_INTERVAL毫秒才列出，
+ * 期间继续从本地索引领取，被其他消费者抢先的元素在领取时跳过；新加入的高优先级元素最多延迟RELOAD_INTERVAL被看到。
+ * 设置了老化间隔时，元素每等待一个间隔有效优先级加1，低优先级元素不会一直得不到消费；
+ * 每组中最早的元素有效优先级最高，选取时只需比较各组的队首。
+ */
+public class ZkPriorityQueue extends TestMainClient {
+    public static final Logger logger = Logger.getLogger(ZkPriorityQueue.class);
+    public static final int MAX_PRIORITY = 999;
+    private static final String PREFIX = "element-p";
+    private static final int SEQ_LENGTH = 10;
+    // 本地索引非空时两次重新列出的最小间隔(毫秒)
+    private static final long RELOAD_INTERVAL = 100;
+
+    // 老化间隔(毫秒)，0表示不老化
+    private final long agingInterval;
+    // 优先级 -> 按顺序号排好序的元素
+    private final TreeMap<Integer, TreeSet<String>> levels = new TreeMap<Integer, TreeSet<String>>();
+    // 本地缓存是否需要重新列出
+    private boolean stale = true;
+    // 最近一次列出的时间
+    private long lastReload = 0;
+    private final Object monitor = new Object();
+
+    private final Watcher childWatcher = new Watcher() {
+        @Override
+        public void process(WatchedEvent event) {
+            synchronized (monitor) {
+                stale = true;
+                monitor.notifyAll();
+            }
+        }
+    };
+
+    private static final Comparator<String> BY_SEQUENCE = new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+            return a.substring(a.length() - SEQ_LENGTH).compareTo(b.substring(b.length() - SEQ_LENGTH));
+        }
+    };
+
+    ZkPriorityQueue(String connectString, String root) {
+        this(connectString, root, 0);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param connectString
+     * @param root
+     * @param agingInterval 老化间隔(毫秒)，0表示不老化
+     */
+    ZkPriorityQueue(String connectString, String root, long agingInterval) {
+        super(connectString);
+        this.root = root;
+        this.agingInterval = agingInterval;
+        if (zk != null) {
+            try {
+                Stat s = zk.exists(root, false);
+                if (s == null) {
+                    zk.create(root, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+                }
+            } catch (KeeperException e) {
+                logger.error(e);
+            } catch (InterruptedException e) {
+                logger.error(e);
+            }
+        }
+    }
+
+    /**
+     * 生产者
+     *
+     * @param i        元素
+     * @param priority 优先级，0 ~ MAX_PRIORITY
+     */
+    boolean produce(int i, int priority) throws KeeperException, InterruptedException {
+        if (priority < 0 || priority > MAX_PRIORITY) {
+            throw new IllegalArgumentException("priority must be in [0, " + MAX_PRIORITY + "]");
+        }
+        String name = String.format("%s%03d-%013d-", PREFIX, priority, System.currentTimeMillis());
+        zk.create(root + "/" + name, FIFOQueue.toBytes(i), ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT_SEQUENTIAL);
+        return true;
+    }
+
+    /**
+     * 消费者，取出有效优先级最高的元素，队列为空时一直等待
+     */
+    int consume() throws KeeperException, InterruptedException {
+        while (true) {
+            String name;
+            synchronized (monitor) {
+                long now = System.currentTimeMillis();
+                if (stale && (levels.isEmpty() || now - lastReload >= RELOAD_INTERVAL)) {
+                    reload();
+                }
+                name = select(now);
+                if (name == null) {
+                    // 缓存为空且没有变化通知，等待新元素
+                    if (!stale) {
+                        monitor.wait();
+                    }
+                    continue;
+                }
+                remove(name);
+            }
+            byte[] b;
+            try {
+                Stat stat = new Stat();
+                b = zk.getData(root + "/" + name, false, stat);
+                zk.delete(root + "/" + name, stat.getVersion());
+            } catch (KeeperException.NoNodeException e) {
+                // 已被其他消费者取走，换下一个
+                continue;
+            }
+            return ByteBuffer.wrap(b).getInt();
+        }
+    }
+
+    /**
+     * 重新列出子节点并注册监听，调用时需持有monitor
+     */
+    private void reload() throws KeeperException, InterruptedException {
+        stale = false;
+        lastReload = System.currentTimeMillis();
+        List<String> children = zk.getChildren(root, childWatcher);
+        levels.clear();
+        for (String child : children) {
+            if (!child.startsWith(PREFIX)) {
+                continue;
+            }
+            int priority = Integer.parseInt(child.substring(PREFIX.length(), PREFIX.length() + 3));
+            TreeSet<String> level = levels.get(priority);
+            if (level == null) {
+                level = new TreeSet<String>(BY_SEQUENCE);
+                levels.put(priority, level);
+            }
+            level.add(child);
+        }
+    }
+
+    /**
+     * 在各优先级的队首中选出有效优先级最高的元素
+     */
+    private String select(long now) {
+        if (levels.isEmpty()) {
+            return null;
+        }
+        if (agingInterval <= 0) {
+            return levels.lastEntry().getValue().first();
+        }
+        String best = null;
+        long bestPriority = Long.MIN_VALUE;
+        for (Map.Entry<Integer, TreeSet<String>> entry : levels.descendingMap().entrySet()) {
+            String head = entry.getValue().first();
+            long effective = entry.getKey() + Math.max(0, now - createdAt(head)) / agingInterval;
+            if (effective > bestPriority) {
+                best = head;
+                bestPriority = effective;
+            }
+        }
+        return best;
+    }
+
+    private static long createdAt(String name) {
+        int start = PREFIX.length() + 4;
+        return Long.parseLong(name.substring(start, start + 13));
+    }
+
+    private void remove(String name) {
+        int priority = Integer.parseInt(name.substring(PREFIX.length(), PREFIX.length() + 3));
+        TreeSet<String> level = levels.get(priority);
+        if (level != null) {
+            level.remove(name);
+            if (level.isEmpty()) {
+                levels.remove(priority);
+            }
+        }
+    }
+}
@@ -1,9 +1,23 @@
 package Zookeeper_Api;
 
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
+import org.apache.zookeeper.AsyncCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooDefs.Ids;
 import org.apache.zookeeper.data.Stat;
@@ -11,11 +25,19 @@ import org.apache.zookeeper.data.Stat;
 public class ActiveKeyValueStore extends ConnectionWatcher {
 
     private static final Charset CHARSET=Charset.forName("UTF-8");
+    // compareAndSet()中表示期望节点不存在；不能用-1，-1在ZooKeeper中表示不检查版本
+    public static final int ABSENT = -2;
+    private static final long MIN_BACKOFF_MILLIS = 5;
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+    // writeAll()因其他客户端并发创建或删除节点而失败时的最大重试次数
+    private static final int MAX_RETRIES = 5;
 
     /**
      * write()方法的任务是将一个关键字(路径)及其值写到ZooKeeper。
-     * 它隐藏了创建一个新的znode和用一个新值更新现有znode之间的区别，
-     * 而是使用exists操作来检测znode是否存在，然后再执行相应的操作。
+     * 它隐藏了创建一个新的znode和用一个新值更新现有znode之间的区别：
+     * 先直接setData()，节点存在时只需一次往返；节点不存在时再create()。
+     * create()时如果其他客户端已经抢先创建，则再setData()一次。
+     * 版本号为-1，会覆盖其他客户端并发写入的值，需要检查版本时使用compareAndSet()或update()。
      *
      * @param path
      * @param value
@@ -23,13 +45,191 @@ public class ActiveKeyValueStore extends ConnectionWatcher {
      * @throws InterruptedException
      */
     public void write(String path,String value) throws KeeperException, InterruptedException {
-        Stat stat = zk.exists(path, false);
-        if(stat==null){
-            zk.create(path, value.getBytes(CHARSET),Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
-        }else{
-            zk.setData(path, value.getBytes(CHARSET),-1);
+        byte[] data = value.getBytes(CHARSET);
+        try {
+            zk.setData(path, data, -1);
+        } catch (KeeperException.NoNodeException e) {
+            try {
+                zk.create(path, data, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            } catch (KeeperException.NodeExistsException e1) {
+                zk.setData(path, data, -1);
+            }
         }
     }
+
+    /**
+     * 只有节点的版本仍为expectedVersion时才写入
+     *
+     * @param expectedVersion 期望的版本，ABSENT表示期望节点不存在，此时创建节点；-1表示不检查版本
+     * @return 版本不符或节点已被创建/删除时返回false
+     */
+    public boolean compareAndSet(String path, int expectedVersion, String value) throws KeeperException, InterruptedException {
+        byte[] data = value.getBytes(CHARSET);
+        try {
+            if (expectedVersion == ABSENT) {
+                zk.create(path, data, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            } else {
+                zk.setData(path, data, expectedVersion);
+            }
+            return true;
+        } catch (KeeperException.BadVersionException e) {
+            return false;
+        } catch (KeeperException.NodeExistsException e) {
+            return false;
+        } catch (KeeperException.NoNodeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 读取-修改-写入，版本冲突时带随机退避重试，直到写入成功
+     *
+     * @param function 由旧值计算新值，节点不存在时旧值为null
+     * @return 写入的新值
+     */
+    public String update(String path, Function<String, String> function) throws KeeperException, InterruptedException {
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (true) {
+            Stat stat = new Stat();
+            String old;
+            int version;
+            try {
+                old = new String(zk.getData(path, false, stat), CHARSET);
+                version = stat.getVersion();
+            } catch (KeeperException.NoNodeException e) {
+                old = null;
+                version = ABSENT;
+            }
+            String value = function.apply(old);
+            if (compareAndSet(path, version, value)) {
+                return value;
+            }
+            // 随机退避，避免冲突的客户端同时重试
+            TimeUnit.MILLISECONDS.sleep(ThreadLocalRandom.current().nextLong(backoff + 1));
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    /**
+     * 在一个multi()事务中写入全部关键字，读者要么看到全部新值，要么看到全部旧值
+     */
+    public void writeAll(Map<String, String> values) throws KeeperException, InterruptedException {
+        writeAll(values, Collections.<String, Integer>emptyMap());
+    }
+
+    /**
+     * 在一个multi()事务中写入全部关键字，不存在的父节点一并创建。
+     * 先对所有关键字及其父节点并行发出异步exists()，一次往返得到哪些节点已存在，
+     * 再为不存在的节点生成create，为已存在的节点生成setData，整批提交。
+     * 提交前节点被其他客户端创建或删除导致事务失败时，重新检查后重试。
+     *
+     * @param expectedVersions 需要检查版本的关键字及其期望版本，ABSENT表示期望节点不存在
+     * @return 有关键字的版本不符时返回false，此时没有任何关键字被写入
+     */
+    public boolean writeAll(Map<String, String> values, Map<String, Integer> expectedVersions) throws KeeperException, InterruptedException {
+        if (values.isEmpty()) {
+            return true;
+        }
+        // 父节点的路径是子节点路径的前缀，排序后父节点在前
+        TreeSet<String> paths = new TreeSet<String>();
+        for (String path : values.keySet()) {
+            for (int i = path.indexOf('/', 1); i > 0; i = path.indexOf('/', i + 1)) {
+                paths.add(path.substring(0, i));
+            }
+            paths.add(path);
+        }
+        int retries = 0;
+        while (true) {
+            Map<String, Boolean> exists = existsAll(paths);
+            List<Op> ops = new ArrayList<Op>(paths.size());
+            for (String path : paths) {
+                String value = values.get(path);
+                Integer expected = expectedVersions.get(path);
+                if (value == null) {
+                    if (!exists.get(path)) {
+                        ops.add(Op.create(path, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+                    }
+                } else if (expected != null) {
+                    if (expected == ABSENT) {
+                        ops.add(Op.create(path, value.getBytes(CHARSET), Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+                    } else {
+                        ops.add(Op.setData(path, value.getBytes(CHARSET), expected));
+                    }
+                } else if (exists.get(path)) {
+                    ops.add(Op.setData(path, value.getBytes(CHARSET), -1));
+                } else {
+                    ops.add(Op.create(path, value.getBytes(CHARSET), Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+                }
+            }
+            try {
+                zk.multi(ops);
+                return true;
+            } catch (KeeperException.SessionExpiredException e) {
+                throw e;
+            } catch (KeeperException e) {
+                String failed = failedPath(e, ops);
+                if (failed != null && expectedVersions.containsKey(failed)) {
+                    return false;
+                }
+                if (retries++ == MAX_RETRIES) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * 并行发出异步exists()，等待全部返回
+     */
+    private Map<String, Boolean> existsAll(Collection<String> paths) throws KeeperException, InterruptedException {
+        final Map<String, Boolean> exists = new ConcurrentHashMap<String, Boolean>();
+        final Map<String, Integer> errors = new ConcurrentHashMap<String, Integer>();
+        final CountDownLatch latch = new CountDownLatch(paths.size());
+        AsyncCallback.StatCallback callback = new AsyncCallback.StatCallback() {
+            @Override
+            public void processResult(int rc, String path, Object ctx, Stat stat) {
+                if (rc == KeeperException.Code.OK.intValue()) {
+                    exists.put(path, true);
+                } else if (rc == KeeperException.Code.NONODE.intValue()) {
+                    exists.put(path, false);
+                } else {
+                    errors.put(path, rc);
+                }
+                latch.countDown();
+            }
+        };
+        for (String path : paths) {
+            zk.exists(path, false, callback, null);
+        }
+        latch.await();
+        if (!errors.isEmpty()) {
+            Map.Entry<String, Integer> error = errors.entrySet().iterator().next();
+            throw KeeperException.create(KeeperException.Code.get(error.getValue()), error.getKey());
+        }
+        return exists;
+    }
+
+    /**
+     * 找出multi()中第一个失败的操作对应的路径
+     */
+    private static String failedPath(KeeperException e, List<Op> ops) {
+        List<OpResult> results = e.getResults();
+        if (results == null) {
+            return null;
+        }
+        for (int i = 0; i < results.size() && i < ops.size(); i++) {
+            OpResult result = results.get(i);
+            if (result instanceof OpResult.ErrorResult) {
+                int err = ((OpResult.ErrorResult) result).getErr();
+                if (err != KeeperException.Code.OK.intValue()
+                        && err != KeeperException.Code.RUNTIMEINCONSISTENCY.intValue()) {
+                    return ops.get(i).getPath();
+                }
+            }
+        }
+        return null;
+    }
+
     public String read(String path,Watcher watch) throws KeeperException, InterruptedException{
         /**
          * 三个参数
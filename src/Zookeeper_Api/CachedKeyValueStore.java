@@ -0,0 +1,239 @@
+package Zookeeper_Api;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * 带本地缓存的ActiveKeyValueStore
+ *
+ * 第一次read()时通过getData()读取值并注册数据观察，之后的读取直接从内存返回。
+ * 观察仅发送单次信号，每次收到NodeDataChanged都用异步getData()重新读取并重新注册观察，
+ * 在重新读取完成之前该条目标记为过期，期间的读取会直接访问ZooKeeper；收到NodeDeleted则删除条目。
+ * 每个条目记录Stat.mzxid，异步读取的结果晚到时不会覆盖更新的值。
+ * write()写入成功后用返回的Stat更新已缓存的条目；没有读取过的路径上没有注册观察，不放入缓存。
+ * 连接断开期间仍返回缓存的值，这类读取计为过期命中；会话过期后观察全部失效，缓存被清空。
+ */
+public class CachedKeyValueStore extends ActiveKeyValueStore {
+
+    private static final Charset CHARSET=Charset.forName("UTF-8");
+
+    /**
+     * 缓存条目
+     */
+    static class Entry {
+        final String value;
+        final long mzxid;
+        // 最近一次从服务器确认的时间
+        final long loadedAt;
+        final boolean stale;
+
+        Entry(String value, long mzxid, long loadedAt, boolean stale) {
+            this.value = value;
+            this.mzxid = mzxid;
+            this.loadedAt = loadedAt;
+            this.stale = stale;
+        }
+    }
+
+    private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private volatile boolean connected = false;
+
+    private final Watcher dataWatcher = new Watcher() {
+        @Override
+        public void process(WatchedEvent event) {
+            String path = event.getPath();
+            if (path == null) {
+                return;
+            }
+            if (event.getType() == Event.EventType.NodeDataChanged) {
+                Entry entry = cache.get(path);
+                if (entry != null) {
+                    cache.replace(path, entry, new Entry(entry.value, entry.mzxid, entry.loadedAt, true));
+                }
+                // 重新读取并重新注册观察
+                zk.getData(path, this, reloadCallback, null);
+            } else if (event.getType() == Event.EventType.NodeDeleted) {
+                cache.remove(path);
+            }
+        }
+    };
+
+    private final AsyncCallback.DataCallback reloadCallback = new AsyncCallback.DataCallback() {
+        @Override
+        public void processResult(int rc, String path, Object ctx, byte[] data, Stat stat) {
+            if (rc == KeeperException.Code.OK.intValue()) {
+                put(path, new String(data, CHARSET), stat.getMzxid());
+            } else {
+                cache.remove(path);
+            }
+        }
+    };
+
+    @Override
+    public void process(WatchedEvent event) {
+        super.process(event);
+        switch (event.getState()) {
+            case SyncConnected:
+                connected = true;
+                break;
+            case Disconnected:
+                connected = false;
+                break;
+            case Expired:
+                connected = false;
+                cache.clear();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 读取值，缓存命中时不访问ZooKeeper
+     */
+    public String read(String path) throws KeeperException, InterruptedException {
+        Entry entry = cache.get(path);
+        if (entry != null && !entry.stale) {
+            hits.incrementAndGet();
+            if (!connected) {
+                staleHits.incrementAndGet();
+            }
+            return entry.value;
+        }
+        misses.incrementAndGet();
+        Stat stat = new Stat();
+        byte[] data = zk.getData(path, dataWatcher, stat);
+        String value = new String(data, CHARSET);
+        put(path, value, stat.getMzxid());
+        return value;
+    }
+
+    /**
+     * 指定了观察对象时不经过缓存，由调用者自己处理通知
+     */
+    @Override
+    public String read(String path, Watcher watch) throws KeeperException, InterruptedException {
+        if (watch == null) {
+            return read(path);
+        }
+        return super.read(path, watch);
+    }
+
+    /**
+     * 先setData()，节点不存在时再create()，写入后更新已缓存的条目
+     */
+    @Override
+    public void write(String path, String value) throws KeeperException, InterruptedException {
+        try {
+            Stat stat = zk.setData(path, value.getBytes(CHARSET), -1);
+            update(path, value, stat.getMzxid());
+        } catch (KeeperException.NoNodeException e) {
+            try {
+                zk.create(path, value.getBytes(CHARSET), Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+                // create()不返回Stat，下次读取时再加载
+                cache.remove(path);
+            } catch (KeeperException.NodeExistsException e1) {
+                Stat stat = zk.setData(path, value.getBytes(CHARSET), -1);
+                update(path, value, stat.getMzxid());
+            }
+        }
+    }
+
+    /**
+     * 写入成功后丢弃缓存的旧值，下次读取时重新加载
+     */
+    @Override
+    public boolean compareAndSet(String path, int expectedVersion, String value) throws KeeperException, InterruptedException {
+        if (super.compareAndSet(path, expectedVersion, value)) {
+            cache.remove(path);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 事务提交后丢弃所有写入关键字的旧值
+     */
+    @Override
+    public boolean writeAll(Map<String, String> values, Map<String, Integer> expectedVersions) throws KeeperException, InterruptedException {
+        if (super.writeAll(values, expectedVersions)) {
+            for (String path : values.keySet()) {
+                cache.remove(path);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 只更新已缓存的条目，这些条目上已注册了数据观察，之后其他客户端的修改仍会通知到
+     */
+    private void update(String path, String value, long mzxid) {
+        Entry fresh = new Entry(value, mzxid, System.currentTimeMillis(), false);
+        while (true) {
+            Entry current = cache.get(path);
+            if (current == null || current.mzxid > mzxid) {
+                return;
+            }
+            if (cache.replace(path, current, fresh)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 只保留mzxid最大的值
+     */
+    private void put(String path, String value, long mzxid) {
+        Entry fresh = new Entry(value, mzxid, System.currentTimeMillis(), false);
+        while (true) {
+            Entry current = cache.get(path);
+            if (current == null) {
+                if (cache.putIfAbsent(path, fresh) == null) {
+                    return;
+                }
+            } else if (current.mzxid > mzxid) {
+                return;
+            } else if (cache.replace(path, current, fresh)) {
+                return;
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * 连接断开期间从缓存返回的次数
+     */
+    public long getStaleHits() {
+        return staleHits.get();
+    }
+
+    /**
+     * 条目距最近一次从服务器确认的毫秒数，未缓存时返回-1
+     */
+    public long getStaleness(String path) {
+        Entry entry = cache.get(path);
+        return entry == null ? -1 : System.currentTimeMillis() - entry.loadedAt;
+    }
+}
@@ -27,6 +27,7 @@ public class ChangedActiveKeyValueStore extends ConnectionWatcher{
                 }else{
                     zk.setData(path, value.getBytes(CHARSET),stat.getVersion());
                 }
+                return;
             } catch (KeeperException.SessionExpiredException e) {
                 throw e;
             } catch (KeeperException e) {
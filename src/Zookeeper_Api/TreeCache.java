@@ -0,0 +1,287 @@
+package Zookeeper_Api;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * 子树缓存
+ *
+ * 把root下的整棵子树镜像到内存中。start()对每个节点同时发出异步的getData()和getChildren()，
+ * 回调中再对子节点发出同样的请求，各层的请求并行进行，不需要逐个等待往返。
+ * 每个节点都注册了数据观察和子节点观察：NodeDataChanged时重新读取该节点，
+ * NodeChildrenChanged时重新列出子节点并与本地比较，新增的子节点按同样方式加载，
+ * NodeDeleted时删除本地的整棵子树。
+ * 所有回调都在同一个事件线程中执行，变化按顺序通知给监听者，读取方法可以在任意线程调用。
+ * 会话过期后观察全部失效，需要重新连接并创建新的TreeCache。
+ */
+public class TreeCache extends ConnectionWatcher {
+
+    private static final Charset CHARSET=Charset.forName("UTF-8");
+
+    public enum Type {
+        ADD, UPDATE, REMOVE
+    }
+
+    /**
+     * 子树变化的监听者
+     */
+    public interface Listener {
+        void event(Type type, String path, byte[] data);
+    }
+
+    private static class Node {
+        final byte[] data;
+        final Stat stat;
+        // 已知的子节点名
+        final Set<String> children = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        Node(byte[] data, Stat stat) {
+            this.data = data;
+            this.stat = stat;
+        }
+    }
+
+    private final String root;
+    private final ConcurrentMap<String, Node> nodes = new ConcurrentHashMap<String, Node>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    // 初始加载中尚未返回的请求数
+    private final AtomicInteger pending = new AtomicInteger();
+    private final CountDownLatch initialized = new CountDownLatch(1);
+
+    private final Watcher treeWatcher = new Watcher() {
+        @Override
+        public void process(WatchedEvent event) {
+            String path = event.getPath();
+            if (path == null) {
+                return;
+            }
+            switch (event.getType()) {
+                case NodeCreated:
+                    load(path);
+                    break;
+                case NodeDataChanged:
+                    fetchData(path);
+                    break;
+                case NodeChildrenChanged:
+                    fetchChildren(path);
+                    break;
+                case NodeDeleted:
+                    remove(path);
+                    if (path.equals(root)) {
+                        // 等待root重新创建
+                        begin();
+                        zk.exists(root, this, existsCallback, null);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    };
+
+    private final AsyncCallback.DataCallback dataCallback = new AsyncCallback.DataCallback() {
+        @Override
+        public void processResult(int rc, String path, Object ctx, byte[] data, Stat stat) {
+            if (rc == KeeperException.Code.OK.intValue()) {
+                Node current = nodes.get(path);
+                if (current == null) {
+                    nodes.put(path, new Node(data, stat));
+                    fire(Type.ADD, path, data);
+                } else if (stat.getMzxid() > current.stat.getMzxid()) {
+                    Node updated = new Node(data, stat);
+                    updated.children.addAll(current.children);
+                    nodes.put(path, updated);
+                    fire(Type.UPDATE, path, data);
+                }
+            } else if (rc == KeeperException.Code.NONODE.intValue()) {
+                remove(path);
+                if (path.equals(root)) {
+                    begin();
+                    zk.exists(root, treeWatcher, existsCallback, null);
+                }
+            }
+            end();
+        }
+    };
+
+    private final AsyncCallback.ChildrenCallback childrenCallback = new AsyncCallback.ChildrenCallback() {
+        @Override
+        public void processResult(int rc, String path, Object ctx, List<String> children) {
+            Node node = nodes.get(path);
+            if (rc == KeeperException.Code.OK.intValue() && node != null) {
+                Set<String> removed = new HashSet<String>(node.children);
+                removed.removeAll(children);
+                for (String child : removed) {
+                    remove(childPath(path, child));
+                }
+                for (String child : children) {
+                    if (node.children.add(child)) {
+                        load(childPath(path, child));
+                    }
+                }
+            }
+            end();
+        }
+    };
+
+    private final AsyncCallback.StatCallback existsCallback = new AsyncCallback.StatCallback() {
+        @Override
+        public void processResult(int rc, String path, Object ctx, Stat stat) {
+            if (rc == KeeperException.Code.OK.intValue()) {
+                load(path);
+            }
+            end();
+        }
+    };
+
+    public TreeCache(String root) {
+        this.root = root;
+    }
+
+    /**
+     * 开始加载，需要先connect()
+     */
+    public void start() {
+        load(root);
+    }
+
+    /**
+     * 等待初始加载完成
+     *
+     * @return 超时返回false
+     */
+    public boolean awaitInitialized(long timeout, TimeUnit unit) throws InterruptedException {
+        return initialized.await(timeout, unit);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 缓存中的数据，不存在时返回null
+     */
+    public byte[] getData(String path) {
+        Node node = nodes.get(path);
+        return node == null ? null : node.data;
+    }
+
+    public String getString(String path) {
+        byte[] data = getData(path);
+        return data == null ? null : new String(data, CHARSET);
+    }
+
+    /**
+     * 缓存中的子节点名，不存在时返回null
+     */
+    public Set<String> getChildren(String path) {
+        Node node = nodes.get(path);
+        return node == null ? null : Collections.unmodifiableSet(new HashSet<String>(node.children));
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * 同时发出读取数据和列出子节点的异步请求，并注册两种观察；
+     * 两个请求先一起计入pending再发出，第一个回调返回时计数不会提前归零
+     */
+    private void load(String path) {
+        pending.addAndGet(2);
+        zk.getData(path, treeWatcher, dataCallback, null);
+        zk.getChildren(path, treeWatcher, childrenCallback, null);
+    }
+
+    private void fetchData(String path) {
+        begin();
+        zk.getData(path, treeWatcher, dataCallback, null);
+    }
+
+    private void fetchChildren(String path) {
+        begin();
+        zk.getChildren(path, treeWatcher, childrenCallback, null);
+    }
+
+    /**
+     * 删除本地的整棵子树，子节点先于父节点通知。
+     * 节点还没加载完就被删除时也要从父节点的子节点集合中去掉，否则重新创建后不会再被加载
+     */
+    private void remove(String path) {
+        int i = path.lastIndexOf('/');
+        if (!path.equals(root) && i >= 0) {
+            Node parent = nodes.get(i == 0 ? "/" : path.substring(0, i));
+            if (parent != null) {
+                parent.children.remove(path.substring(i + 1));
+            }
+        }
+        Node node = nodes.remove(path);
+        if (node == null) {
+            return;
+        }
+        for (String child : node.children) {
+            remove(childPath(path, child));
+        }
+        fire(Type.REMOVE, path, node.data);
+    }
+
+    private void fire(Type type, String path, byte[] data) {
+        for (Listener listener : listeners) {
+            try {
+                listener.event(type, path, data);
+            } catch (RuntimeException e) {
+                System.err.printf("Listener failed on %s %s: %s\n", type, path, e);
+            }
+        }
+    }
+
+    private void begin() {
+        pending.incrementAndGet();
+    }
+
+    private void end() {
+        if (pending.decrementAndGet() == 0) {
+            initialized.countDown();
+        }
+    }
+
+    private static String childPath(String parent, String child) {
+        return "/".equals(parent) ? "/" + child : parent + "/" + child;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, KeeperException {
+        TreeCache cache = new TreeCache(ConfigUpdater.PATH);
+        cache.connect("127.0.0.1");
+        cache.addListener(new Listener() {
+            @Override
+            public void event(Type type, String path, byte[] data) {
+                System.out.printf("%s %s %s\n", type, path, data == null ? null : new String(data, CHARSET));
+            }
+        });
+        cache.start();
+        cache.awaitInitialized(30, TimeUnit.SECONDS);
+        System.out.printf("Loaded %d nodes under %s\n", cache.size(), ConfigUpdater.PATH);
+        //stay alive until process is killed or Thread is interrupted
+        Thread.sleep(Long.MAX_VALUE);
+    }
+}